@@ -15,6 +15,7 @@ import org.kohsuke.args4j.Option;
 import packets.builder.PacketBuilder;
 import proxy.ConnectionDetails;
 import proxy.ConnectionManager;
+import proxy.InjectionScheduler;
 import proxy.auth.AuthDetails;
 import util.PathUtils;
 
@@ -24,13 +25,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class Config {
     private static final int DEFAULT_VERSION = 340;
     private static Path configPath;
 
-    private static Consumer<PacketBuilder> injector;
+    private static BiConsumer<PacketBuilder, InjectionScheduler.Priority> injector;
     private static Config instance;
 
     // fields marked transient so they are not written to JSON file
@@ -282,12 +284,16 @@ public class Config {
     /**
      * Packet injector allows new packets to be sent to the client.
      */
-    public static void registerPacketInjector(Consumer<PacketBuilder> injector) {
+    public static void registerPacketInjector(BiConsumer<PacketBuilder, InjectionScheduler.Priority> injector) {
         Config.injector = injector;
     }
 
     public static Consumer<PacketBuilder> getPacketInjector() {
-        return injector;
+        return getPacketInjector(InjectionScheduler.Priority.MESSAGE);
+    }
+
+    public static Consumer<PacketBuilder> getPacketInjector(InjectionScheduler.Priority priority) {
+        return packet -> injector.accept(packet, priority);
     }
 
 
@@ -393,11 +399,31 @@ public class Config {
 
     public boolean disableInfoMessages = false;
 
+    @Option(name = "--region-compression-level",
+            usage = "Zlib compression level (0-9) used for chunks written to region files. Lower is faster, higher is smaller.")
+    public int regionCompressionLevel = 6;
+
+    @Option(name = "--max-flush-delay",
+            usage = "Maximum time in milliseconds that outgoing packets are buffered before being sent.")
+    public int maxFlushDelay = 10;
+
+    @Option(name = "--disable-packet-pipeline",
+            usage = "Handle every packet before forwarding it, instead of parsing packets after they have been sent to the client.")
+    public boolean disablePacketPipeline = false;
+
     // getters
     public static int getExtendedRenderDistance() {
         return instance.extendedRenderDistance;
     }
 
+    public static int getMaxFlushDelay() {
+        return Math.max(1, instance.maxFlushDelay);
+    }
+
+    public static int getRegionCompressionLevel() {
+        return Math.max(0, Math.min(9, instance.regionCompressionLevel));
+    }
+
     public static boolean doMeasureRenderDistance() {
         return instance.measureRenderDistance;
     }
@@ -432,6 +458,10 @@ public class Config {
         return instance.versionReporter;
     }
 
+    public static VersionBinding versionBinding() {
+        return instance.versionReporter.getBinding();
+    }
+
 
 
     public static AuthDetails getManualAuthDetails() {
@@ -453,6 +483,8 @@ public class Config {
 
     public static boolean sendInfoMessages() { return !instance.disableInfoMessages; }
 
+    public static boolean usePacketPipeline() { return !instance.disablePacketPipeline; }
+
     // setters
     public static void setZoomLevel(int val) {
         instance.zoomLevel = val;
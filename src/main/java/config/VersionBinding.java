@@ -0,0 +1,36 @@
+package config;
+
+import game.data.chunk.Chunk;
+import game.data.chunk.ChunkFactory;
+import game.data.coordinates.CoordinateDim2D;
+import game.data.entity.metadata.MetaData;
+import game.data.entity.version.EquipmentReader;
+import game.data.maps.PlayerMap;
+import packets.DataTypeProvider;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Constructors for the version-specific classes that are created often, such as the data type provider (for every
+ * packet) and chunks. These are selected once for the version of the current connection, instead of going through
+ * VersionReporter.select every time an object is created. Chunk sections and the block position encoding are not
+ * included, as these are already determined by the chunk and provider classes.
+ */
+public class VersionBinding {
+    public final Function<ByteBuffer, DataTypeProvider> provider;
+    public final Function<CoordinateDim2D, Chunk> chunk;
+    public final Supplier<MetaData> metaData;
+    public final Supplier<EquipmentReader> equipmentReader;
+    public final IntFunction<PlayerMap> map;
+
+    VersionBinding(VersionReporter version) {
+        this.provider = DataTypeProvider.factoryFor(version);
+        this.chunk = ChunkFactory.factoryFor(version);
+        this.metaData = MetaData.factoryFor(version);
+        this.equipmentReader = EquipmentReader.factoryFor(version);
+        this.map = PlayerMap.factoryFor(version);
+    }
+}
@@ -5,10 +5,24 @@ import game.protocol.ProtocolVersionHandler;
 
 public class VersionReporter {
     private final int protocolVersion;
+    private VersionBinding binding;
+
     public VersionReporter(int version) {
         this.protocolVersion = version;
     }
 
+    /**
+     * Get the constructors for this version. These are resolved on first use, which is after the protocol version is
+     * known, as a new reporter is created whenever it changes.
+     */
+    public VersionBinding getBinding() {
+        // all fields of the binding are final, so it's safe if two threads end up creating one
+        if (binding == null) {
+            binding = new VersionBinding(this);
+        }
+        return binding;
+    }
+
     public Protocol getProtocol() {
         return ProtocolVersionHandler.getInstance().getProtocolByProtocolVersion(protocolVersion);
     }
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -44,7 +45,7 @@ public class RenderDistanceExtender extends Thread {
         this.extendedDistance = extendedDistance;
 
         this.activeChunks = new HashSet<>();
-        this.loaded = new HashSet<>();
+        this.loaded = ConcurrentHashMap.newKeySet();
         this.start();
     }
 
@@ -229,7 +230,7 @@ public class RenderDistanceExtender extends Thread {
     /**
      * Notifies of newly loaded chunks so we can measure the server render distance.
      */
-    public void notifyLoaded(CoordinateDim2D location) {
+    public synchronized void notifyLoaded(CoordinateDim2D location) {
         this.loaded.add(location.removeDimension());
 
         if (!measuringRenderDistance) {
@@ -25,6 +25,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import packets.DataTypeProvider;
 import packets.builder.PacketBuilder;
+import proxy.InjectionScheduler;
 import util.PathUtils;
 
 import java.io.File;
@@ -35,6 +36,7 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static util.ExceptionHandling.attempt;
@@ -495,7 +497,7 @@ public class WorldManager {
     }
 
     public void deleteAllExisting() {
-        regions = new HashMap<>();
+        regions = new ConcurrentHashMap<>();
         chunkFactory.clear();
 
         try {
@@ -562,11 +564,10 @@ public class WorldManager {
     public Set<Coordinate2D> loadChunks(Collection<Coordinate2D> desired) {
         Set<Coordinate2D> loaded = new HashSet<>();
 
-        int chunksSent = 0;
         Map<Coordinate2D, McaFile> loadedFiles = new HashMap<>();
         for (Coordinate2D coords : desired) {
-            // since there is delay in this loop, it's possible some of the chunks were sent to the client by the time
-            // we get to them.
+            // since the injection queue makes us wait in this loop, it's possible some of the chunks were sent to the
+            // client by the time we get to them.
             if (this.renderDistanceExtender.isLoaded(coords)) {
                 continue;
             }
@@ -591,10 +592,11 @@ public class WorldManager {
             try {
                 PacketBuilder chunkData = chunk.toPacket();
                 PacketBuilder light = chunk.toLightPacket();
+                Consumer<PacketBuilder> injector = Config.getPacketInjector(InjectionScheduler.Priority.CHUNK);
                 if (light != null) {
-                    Config.getPacketInjector().accept(light);
+                    injector.accept(light);
                 }
-                Config.getPacketInjector().accept(chunkData);
+                injector.accept(chunkData);
 
             } catch (IncompleteChunkException ex) {
                 ex.printStackTrace();
@@ -605,17 +607,6 @@ public class WorldManager {
 
             // draw in GUI
             loadChunk(chunk, true, false);
-
-            // periodically sleep so the client doesn't stutter from receiving too many chunks
-            chunksSent = (chunksSent + 1) % 5;
-            if (chunksSent == 0) {
-                try {
-                    Thread.sleep(48);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
         }
         return loaded;
     }
@@ -656,30 +647,18 @@ public class WorldManager {
         if (!Config.handleBlockChanges()) {
             return;
         }
-        chunkFactory.runOnFactoryThread(() -> {
-            Coordinate3D coords = provider.readCoordinates();
-            Chunk c = getChunk(coords.globalToChunk().addDimension(this.dimension));
-            if (c == null) {
-                return;
-            }
+        Coordinate3D coords = provider.readCoordinates();
+        int blockStateId = provider.readVarInt();
 
-            c.updateBlock(coords.globalToChunkLocal(), provider.readVarInt());
-            touchChunk(c);
-        });
+        Coordinate3D local = coords.globalToChunkLocal();
+        chunkFactory.addBlockChange(coords.globalToChunk().addDimension(this.dimension), batch -> batch.add(local, blockStateId));
     }
 
     public void multiBlockChange(Coordinate3D pos, DataTypeProvider provider) {
         if (!Config.handleBlockChanges()) {
             return;
         }
-        chunkFactory.runOnFactoryThread(() -> {
-            Chunk c = getChunk(pos.addDimension(this.dimension));
-            if (c == null) {
-                return;
-            }
-            c.updateBlocks(pos, provider);
-        });
-
+        chunkFactory.addBlockChange(pos.addDimension(this.dimension), batch -> batch.add(pos, provider));
     }
 
 
@@ -688,15 +667,19 @@ public class WorldManager {
      * it is given to the chunk to parse immediately.
      */
     public void updateLight(DataTypeProvider provider) {
-        chunkFactory.runOnFactoryThread(() -> {
-            int chunkX = provider.readVarInt();
-            int chunkZ = provider.readVarInt();
-            CoordinateDim2D coords = new CoordinateDim2D(chunkX, chunkZ, dimension);
+        int chunkX = provider.readVarInt();
+        int chunkZ = provider.readVarInt();
+        CoordinateDim2D coords = new CoordinateDim2D(chunkX, chunkZ, dimension);
+
+        provider.retain();
+        chunkFactory.runOnFactoryThread(coords, () -> {
             Chunk c = getChunk(coords);
             if (c == null) {
+                // the chunk factory holds on to the data until the chunk arrives
                 chunkFactory.updateLight(coords, provider);
             } else {
                 c.updateLight(provider);
+                provider.release();
                 touchChunk(c);
 
                 GuiManager.setChunkState(coords, c.getState());
@@ -0,0 +1,95 @@
+package game.data.chunk;
+
+import game.data.coordinates.Coordinate3D;
+import packets.DataTypeProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Block change packets for a chunk that have not been applied yet. Packets that arrive while the batch is waiting for
+ * the chunk's executor are added to the same batch, so that a burst of changes (explosions, redstone) is applied with
+ * a single palette update per section, a single height map update and a single redraw.
+ */
+public class BlockChangeBatch {
+    private final List<Update> updates = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Add a single block change.
+     * @param position the chunk-local position of the block
+     * @return false if the batch has already been applied, in which case a new batch should be used
+     */
+    public synchronized boolean add(Coordinate3D position, int blockStateId) {
+        if (closed) {
+            return false;
+        }
+        updates.add(new Update(position, blockStateId, null));
+        return true;
+    }
+
+    /**
+     * Add a multi block change packet. The packet is decoded by the chunk once the batch is applied, so the data is
+     * kept until then.
+     * @param position the position of the chunk or section, as given in the packet
+     * @return false if the batch has already been applied, in which case a new batch should be used
+     */
+    public synchronized boolean add(Coordinate3D position, DataTypeProvider provider) {
+        if (closed) {
+            return false;
+        }
+        provider.retain();
+        updates.add(new Update(position, 0, provider));
+        return true;
+    }
+
+    /**
+     * Apply all changes in this batch to the chunk. No changes can be added afterwards.
+     * @param chunk the chunk to update, or null if it is not loaded, in which case the changes are discarded
+     * @return true if the chunk was changed
+     */
+    public boolean apply(Chunk chunk) {
+        synchronized (this) {
+            closed = true;
+        }
+
+        try {
+            if (chunk == null) {
+                return false;
+            }
+
+            BlockChanges changes = new BlockChanges();
+            for (Update update : updates) {
+                if (update.provider == null) {
+                    changes.add(update.position, update.blockStateId);
+                } else {
+                    chunk.readBlockChanges(update.position, update.provider, changes);
+                }
+            }
+
+            if (changes.isEmpty()) {
+                return false;
+            }
+            chunk.updateBlocks(changes);
+            return true;
+        } finally {
+            for (Update update : updates) {
+                if (update.provider != null) {
+                    update.provider.release();
+                }
+            }
+        }
+    }
+
+    private static class Update {
+        final Coordinate3D position;
+        final int blockStateId;
+        final DataTypeProvider provider;
+
+        Update(Coordinate3D position, int blockStateId, DataTypeProvider provider) {
+            this.position = position;
+            this.blockStateId = blockStateId;
+            this.provider = provider;
+        }
+    }
+}
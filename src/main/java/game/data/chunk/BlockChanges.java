@@ -0,0 +1,76 @@
+package game.data.chunk;
+
+import game.data.coordinates.Coordinate3D;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Decoded block changes for a single chunk, grouped by section so that each section can be updated in one go.
+ */
+public class BlockChanges {
+    private final Map<Integer, Section> sections = new TreeMap<>();
+    private final List<Coordinate3D> positions = new ArrayList<>();
+
+    /**
+     * Add a block change. Later changes to the same block overwrite earlier ones when applied.
+     * @param position the chunk-local position of the block
+     */
+    public void add(Coordinate3D position, int blockStateId) {
+        int sectionY = Math.floorDiv(position.getY(), Chunk.SECTION_HEIGHT);
+        sections.computeIfAbsent(sectionY, k -> new Section()).add(position.chunkLocalToSectionLocal(), blockStateId);
+        positions.add(position);
+    }
+
+    public boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    void forEachSection(BiConsumer<Integer, Section> consumer) {
+        sections.forEach(consumer);
+    }
+
+    /**
+     * The chunk-local positions of all changed blocks, used to recompute the height map.
+     */
+    Collection<Coordinate3D> getPositions() {
+        return positions;
+    }
+
+    /**
+     * Changes to a single section, in the order they were received.
+     */
+    static class Section {
+        private final List<Coordinate3D> positions = new ArrayList<>();
+        private int[] blockStateIds = new int[16];
+
+        private void add(Coordinate3D position, int blockStateId) {
+            if (positions.size() == blockStateIds.length) {
+                blockStateIds = Arrays.copyOf(blockStateIds, blockStateIds.length * 2);
+            }
+            blockStateIds[positions.size()] = blockStateId;
+            positions.add(position);
+        }
+
+        int size() {
+            return positions.size();
+        }
+
+        Coordinate3D getPosition(int i) {
+            return positions.get(i);
+        }
+
+        int getBlockStateId(int i) {
+            return blockStateIds[i];
+        }
+
+        int[] getBlockStateIds() {
+            return Arrays.copyOf(blockStateIds, size());
+        }
+    }
+}
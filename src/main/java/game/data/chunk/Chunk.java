@@ -25,6 +25,8 @@ public abstract class Chunk extends ChunkEntities {
     public static final int SECTION_HEIGHT = 16;
     public static final int SECTION_WIDTH = 16;
     protected static final int LIGHT_SIZE = 2048;
+    // the parts of a chunk's NBT that are used by parse(Tag), so that the rest can be skipped when reading it
+    public static final String[] NBT_PATHS = { "Level/Sections", "Level/Heightmaps", "Level/Biomes" };
     private final ChunkSection[] chunkSections;
     public CoordinateDim2D location;
     private Runnable afterParse;
@@ -33,6 +35,8 @@ public abstract class Chunk extends ChunkEntities {
     private boolean saved;
     private ChunkImageFactory imageFactory;
     private boolean isLit;
+    // once blocks are changed, the heightmap sent by the server no longer matches the blocks
+    private volatile boolean blocksChanged;
 
     public Chunk(CoordinateDim2D location) {
         super();
@@ -161,6 +165,26 @@ public abstract class Chunk extends ChunkEntities {
     protected void parseHeightMaps(DataTypeProvider dataProvider) {
     }
 
+    /**
+     * Get the highest non-air block of each column (z << 4 | x), as sent by the server. This is used as a starting
+     * point when computing the height map for the overview image.
+     * @return the heights, or null if the server did not send them or if they may no longer be correct
+     */
+    protected int[] getServerHeightMap() {
+        return null;
+    }
+
+    protected boolean hasChangedBlocks() {
+        return blocksChanged;
+    }
+
+    /**
+     * Called when the server sends new data for the chunk, after which its height map matches the blocks again.
+     */
+    protected void resetChangedBlocks() {
+        blocksChanged = false;
+    }
+
     protected void readBlockCount(DataTypeProvider provider) {
     }
 
@@ -347,9 +371,8 @@ public abstract class Chunk extends ChunkEntities {
 
     protected void writeChunkSections(PacketBuilder packet) {
         PacketBuilder columns = writeSectionData();
-        byte[] columnArr = columns.toArray();
-        packet.writeVarInt(columnArr.length);
-        packet.writeByteArray(columnArr);
+        packet.writeVarInt(columns.size());
+        packet.writeByteArray(columns);
     }
 
     public PacketBuilder toLightPacket() { return null; }
@@ -474,18 +497,10 @@ public abstract class Chunk extends ChunkEntities {
 
     public void updateBlock(Coordinate3D coords, int blockStateId, boolean suppressUpdate) {
         raiseEvent("update block");
+        blocksChanged = true;
 
-        int sectionY = coords.getY() / SECTION_HEIGHT;
-
-        // if there's no section, we create an empty one
-        if (getChunkSection(sectionY) == null) {
-            ChunkSection newChunkSection = createNewChunkSection((byte) sectionY, Palette.empty());
-            newChunkSection.setBlocks(new long[256]);
-            setChunkSection(sectionY, newChunkSection);
-        }
-
-        // if the section is still null, that means it's likely out of the world bounds so just ignore this update
-        ChunkSection section = getChunkSection(sectionY);
+        // if the section is null, that means it's likely out of the world bounds so just ignore this update
+        ChunkSection section = getOrCreateChunkSection(Math.floorDiv(coords.getY(), SECTION_HEIGHT));
         if (section == null) { return; }
 
         section.setBlockAt(coords.chunkLocalToSectionLocal(), blockStateId);
@@ -499,15 +514,24 @@ public abstract class Chunk extends ChunkEntities {
         }
     }
 
+    private ChunkSection getOrCreateChunkSection(int sectionY) {
+        // if there's no section, we create an empty one
+        if (getChunkSection(sectionY) == null) {
+            ChunkSection newChunkSection = createNewChunkSection((byte) sectionY, Palette.empty());
+            newChunkSection.setBlocks(new long[256]);
+            setChunkSection(sectionY, newChunkSection);
+        }
+        return getChunkSection(sectionY);
+    }
+
     /**
-     * Update a number of blocks. toUpdate keeps track of which blocks have changed so that we can only redraw the
-     * chunk if that's actually needed.
-     * @param pos
-     * @param provider
+     * Read the block changes from a multi block change packet.
+     * @param pos the position given in the packet
+     * @param provider the packet data, positioned at the list of changes
+     * @param changes the changes to add to
      */
-    public void updateBlocks(Coordinate3D pos, DataTypeProvider provider) {
+    public void readBlockChanges(Coordinate3D pos, DataTypeProvider provider, BlockChanges changes) {
         int count = provider.readVarInt();
-        Collection<Coordinate3D> toUpdate = new ArrayList<>();
         while (count-- > 0) {
             byte xz = provider.readNext();
             int y = provider.readNext();
@@ -516,12 +540,25 @@ public abstract class Chunk extends ChunkEntities {
 
             int blockId = provider.readVarInt();
 
-            Coordinate3D blockPos = new Coordinate3D(x, y, z);
-            toUpdate.add(blockPos);
-
-            updateBlock(blockPos, blockId, true);
+            changes.add(new Coordinate3D(x, y, z), blockId);
         }
-        this.getChunkImageFactory().recomputeHeights(toUpdate);
+    }
+
+    /**
+     * Update a number of blocks. Each section is updated at once, and the heights of all changed blocks are recomputed
+     * together so that we only redraw the chunk if that's actually needed.
+     */
+    public void updateBlocks(BlockChanges changes) {
+        raiseEvent("update blocks");
+        blocksChanged = true;
+
+        changes.forEachSection((sectionY, sectionChanges) -> {
+            ChunkSection section = getOrCreateChunkSection(sectionY);
+            if (section != null) {
+                section.setBlocksAt(sectionChanges);
+            }
+        });
+        this.getChunkImageFactory().recomputeHeights(changes.getPositions());
     }
 
     public void updateLight(DataTypeProvider provider) {
@@ -537,4 +574,4 @@ public abstract class Chunk extends ChunkEntities {
     public boolean hasSeparateEntities() {
         return false;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
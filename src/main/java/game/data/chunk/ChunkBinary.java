@@ -6,9 +6,11 @@ import game.data.coordinates.CoordinateDim2D;
 import game.data.region.McaFile;
 import proxy.CompressionManager;
 import se.llbit.nbt.NamedTag;
+import util.NbtReader;
 import util.PathUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
@@ -67,7 +69,7 @@ public class ChunkBinary implements Serializable {
             return null;
         }
 
-        byte[] data = CompressionManager.zlibCompress(output.toByteArray());
+        byte[] data = CompressionManager.zlibCompress(output.toByteArray(), Config.getRegionCompressionLevel());
 
         byte[] finalData = new byte[data.length + 5];
         int lengthToWrite = data.length + 1;
@@ -102,13 +104,22 @@ public class ChunkBinary implements Serializable {
     }
 
     public NamedTag getNbt() {
-        int length = (chunkData[0] & 0xFF) << 24 | (chunkData[1] & 0xFF) << 16 | (chunkData[2] & 0xFF) << 8 | (chunkData[3] & 0xFF);
+        return (NamedTag) nbtReader().readNamedTag();
+    }
 
-        byte[] compressedNbtData = new byte[length - 1];
-        System.arraycopy(this.chunkData, 5, compressedNbtData, 0, length - 1);
+    /**
+     * Read only part of the chunk's NBT, skipping over everything else.
+     * @param paths the paths of the tags to include, e.g. "Level/Sections"
+     */
+    public NamedTag getNbt(String... paths) {
+        return (NamedTag) nbtReader().readNamedTag(paths);
+    }
+
+    private NbtReader nbtReader() {
+        int length = (chunkData[0] & 0xFF) << 24 | (chunkData[1] & 0xFF) << 16 | (chunkData[2] & 0xFF) << 8 | (chunkData[3] & 0xFF);
 
-        byte[] data = CompressionManager.zlibDecompress(compressedNbtData);
-        return (NamedTag) NamedTag.read(new DataInputStream(new ByteArrayInputStream(data)));
+        byte[] data = CompressionManager.zlibDecompress(this.chunkData, 5, length - 1);
+        return new NbtReader(ByteBuffer.wrap(data));
     }
 
     public int getTimestamp() {
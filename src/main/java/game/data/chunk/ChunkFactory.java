@@ -5,23 +5,39 @@ import config.Option;
 import config.Version;
 import config.VersionReporter;
 import game.data.chunk.version.*;
+import game.data.coordinates.Coordinate2D;
 import game.data.coordinates.Coordinate3D;
 import game.data.coordinates.CoordinateDim2D;
 import game.data.WorldManager;
 import packets.DataTypeProvider;
 import se.llbit.nbt.NamedTag;
 import se.llbit.nbt.SpecificTag;
+import util.TimerWheel;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Class responsible for creating chunks.
  */
 public class ChunkFactory {
+    private static final int PARSER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int MAX_WAIT_SECONDS = 10;
+
     private Map<CoordinateDim2D, UnparsedChunk> unparsedChunks;
 
-    private ExecutorService executor;
+    // block changes that have been submitted to the chunk's executor, but that can still be added to
+    private final Map<CoordinateDim2D, BlockChangeBatch> blockChanges = new ConcurrentHashMap<>();
+
+    // data that arrives before its chunk is discarded if the chunk does not follow within the time limit
+    private final TimerWheel<UnparsedChunk> expiry = new TimerWheel<>(MAX_WAIT_SECONDS, this::expire);
+    private ScheduledExecutorService expiryService;
+
+    // each chunk is always handled by the same executor, so that work for a chunk is done in order
+    private ExecutorService[] executors;
+    private ParseQueue[] queues;
 
     public ChunkFactory() {
         clear();
@@ -30,7 +46,32 @@ public class ChunkFactory {
     public void clear() {
         this.unparsedChunks = new ConcurrentHashMap<>();
 
-        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Chunk Parser Service"));;
+        // let the old executors finish what they were doing, their threads will stop afterwards
+        if (this.executors != null) {
+            for (int i = 0; i < executors.length; i++) {
+                queues[i].clear();
+                executors[i].shutdown();
+            }
+        }
+
+        this.executors = new ExecutorService[PARSER_THREADS];
+        this.queues = new ParseQueue[PARSER_THREADS];
+        for (int i = 0; i < executors.length; i++) {
+            String name = "Chunk Parser Service " + i;
+            this.executors[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+            this.queues[i] = new ParseQueue(executors[i]);
+        }
+
+        // the old timer is stopped so that its thread does not stay around
+        if (this.expiryService != null) {
+            expiryService.shutdownNow();
+        }
+        this.expiryService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Chunk Expiry Service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiryService.scheduleAtFixedRate(expiry::advance, 1, 1, TimeUnit.SECONDS);
     }
 
     /**
@@ -41,15 +82,17 @@ public class ChunkFactory {
     public void updateTileEntity(Coordinate3D position, SpecificTag entityData) {
         CoordinateDim2D chunkPos = position.globalToChunk().addDimension(WorldManager.getInstance().getDimension());
 
-        Chunk chunk = WorldManager.getInstance().getChunk(chunkPos);
+        runOnFactoryThread(chunkPos, () -> {
+            Chunk chunk = WorldManager.getInstance().getChunk(chunkPos);
 
-        // if the chunk doesn't exist yet, add it to the queue to process later
-        if (chunk == null) {
-            getUnparsedIfFresh(chunkPos).addTileEntity(new TileEntity(position, entityData));
-        } else {
-            chunk.addBlockEntity(position, entityData);
-            chunk.setSaved(false);
-        }
+            // if the chunk doesn't exist yet, add it to the queue to process later
+            if (chunk == null) {
+                getUnparsedIfFresh(chunkPos).addTileEntity(new TileEntity(position, entityData));
+            } else {
+                chunk.addBlockEntity(position, entityData);
+                chunk.setSaved(false);
+            }
+        });
     }
 
     /**
@@ -61,36 +104,115 @@ public class ChunkFactory {
             return;
         }
 
-        Runnable r = () -> {
-            CoordinateDim2D chunkPos = new CoordinateDim2D(provider.readInt(), provider.readInt(), WorldManager.getInstance().getDimension());
-            getUnparsed(chunkPos).setProvider(provider);
+        // the data is kept until the chunk has been parsed, see UnparsedChunk
+        provider.retain();
+        CoordinateDim2D chunkPos = new CoordinateDim2D(provider.readInt(), provider.readInt(), WorldManager.getInstance().getDimension());
 
-            this.parse();
-        };
+        // changes that arrive from now on need to be applied on top of the new data, so they cannot be added to a batch
+        // that was submitted before it. Without an open batch, the next change starts a new one which waits for the
+        // chunk to be parsed.
+        blockChanges.remove(chunkPos);
 
-        if (executor != null) {
-            executor.execute(r);
-        } else {
-            r.run();
+        // chunks are not parsed in the order they arrive, each task parses the closest chunk that is still waiting
+        int shard = shardOf(chunkPos);
+        ParseQueue queue = queues[shard];
+        queue.offer(chunkPos, provider, () -> parseNext(queue));
+    }
+
+    /**
+     * Parse the closest waiting chunk, and run the tasks that were waiting for it. If the chunk was dropped in the
+     * meantime, only the tasks are run. The distance is taken from where the player is now rather than where they
+     * were when the chunk arrived, as the player may have moved a long way since (e.g. while flying).
+     */
+    private void parseNext(ParseQueue queue) {
+        PendingChunk next = queue.poll(WorldManager.getInstance().getPlayerPosition().globalToChunk());
+        if (next == null) {
+            return;
         }
+
+        runAll(next.before);
+
+        if (next.provider != null) {
+            UnparsedChunk unparsed = unparsedChunks.remove(next.location);
+            if (unparsed == null) {
+                unparsed = new UnparsedChunk(next.location);
+            }
+            unparsed.setProvider(next.provider);
+            this.parse(unparsed);
+        }
+
+        runAll(next.after);
     }
 
-    private void parse() {
-        for (CoordinateDim2D k : unparsedChunks.keySet()) {
-            try {
-                boolean doRemove = readChunkDataPacket(unparsedChunks.get(k));
+    /**
+     * Add a block change to the chunk's current batch. When a new batch is started it is submitted to the chunk's
+     * executor, and any changes that arrive before the executor gets to it are applied together with it.
+     * @param add adds the change to the given batch, returns false if the batch was already applied
+     */
+    public void addBlockChange(CoordinateDim2D chunkPos, Predicate<BlockChangeBatch> add) {
+        while (true) {
+            BlockChangeBatch created = new BlockChangeBatch();
+            BlockChangeBatch batch = blockChanges.putIfAbsent(chunkPos, created);
+            if (batch == null) {
+                batch = created;
+                submitBlockChanges(chunkPos, created);
+            }
+
+            if (add.test(batch)) {
+                return;
+            }
+
+            // the batch was applied in the meantime, so it should no longer be in the map
+            blockChanges.remove(chunkPos, batch);
+        }
+    }
+
+    private void submitBlockChanges(CoordinateDim2D chunkPos, BlockChangeBatch batch) {
+        runOnFactoryThread(chunkPos, () -> {
+            blockChanges.remove(chunkPos, batch);
 
-                if (doRemove) {
-                    unparsedChunks.remove(k);
-                }
+            Chunk c = WorldManager.getInstance().getChunk(chunkPos);
+            if (batch.apply(c)) {
+                WorldManager.getInstance().touchChunk(c);
+            }
+        });
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            try {
+                task.run();
             } catch (Exception ex) {
                 ex.printStackTrace();
-                System.err.println("Chunk could not be parsed!");
-                unparsedChunks.remove(k);
             }
         }
     }
 
+    /**
+     * Parse a chunk now that its data has arrived, together with any data that was sent for it before.
+     */
+    private void parse(UnparsedChunk unparsed) {
+        try {
+            readChunkDataPacket(unparsed);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.err.println("Chunk could not be parsed!");
+        } finally {
+            unparsed.release();
+        }
+    }
+
+    /**
+     * Discard data for a chunk that never arrived. This is done on the chunk's own executor, so that it cannot happen
+     * while the chunk is being parsed.
+     */
+    private void expire(UnparsedChunk unparsed) {
+        runOnFactoryThread(unparsed.location, () -> {
+            unparsedChunks.remove(unparsed.location, unparsed);
+            unparsed.release();
+        });
+    }
+
     public static Chunk parseChunk(UnparsedChunk parser, WorldManager worldManager) {
         DataTypeProvider dataProvider = parser.provider;
         CoordinateDim2D chunkPos = parser.location;
@@ -108,16 +230,7 @@ public class ChunkFactory {
     /**
      * Parse a chunk data packet. Largely based on: https://wiki.vg/Protocol
      */
-    private boolean readChunkDataPacket(UnparsedChunk parser) {
-        if (parser.parsingInProgress) { return false; }
-
-        // If no chunk parser is present, the unparsed chunk will be removed if no chunk parser is added within a time
-        // limit. This can only happen in rare cases where data from a chunk arrives before the chunk.
-        if (parser.provider == null) {
-            return parser.isStale();
-        }
-        parser.parsingInProgress = true;
-
+    private void readChunkDataPacket(UnparsedChunk parser) {
         Chunk chunk = parseChunk(parser, WorldManager.getInstance());
 
         // Add any tile entities that were sent before the chunk was parsed. We cannot delete the tile entities yet
@@ -131,7 +244,6 @@ public class ChunkFactory {
         if (parser.lighting != null) {
             chunk.updateLight(parser.lighting);
         }
-        return true;
     }
 
     /**
@@ -140,15 +252,29 @@ public class ChunkFactory {
      * @return the chunk matching the given version
      */
     private static Chunk getVersionedChunk(CoordinateDim2D chunkPos) {
-        return Config.versionReporter().select(Chunk.class,
-                Option.of(Version.V1_18, () -> new Chunk_1_18(chunkPos)),
-                Option.of(Version.V1_17, () -> new Chunk_1_17(chunkPos)),
-                Option.of(Version.V1_16, () -> new Chunk_1_16(chunkPos)),
-                Option.of(Version.V1_15, () -> new Chunk_1_15(chunkPos)),
-                Option.of(Version.V1_14, () -> new Chunk_1_14(chunkPos)),
-                Option.of(Version.V1_13, () -> new Chunk_1_13(chunkPos)),
-                Option.of(Version.V1_12, () -> new Chunk_1_12(chunkPos))
-        );
+        return Config.versionBinding().chunk.apply(chunkPos);
+    }
+
+    /**
+     * Get the constructor for chunks of the given version, see VersionBinding.
+     */
+    public static Function<CoordinateDim2D, Chunk> factoryFor(VersionReporter version) {
+        if (version.is(Version.V1_18)) {
+            return Chunk_1_18::new;
+        } else if (version.is(Version.V1_17)) {
+            return Chunk_1_17::new;
+        } else if (version.is(Version.V1_16)) {
+            return Chunk_1_16::new;
+        } else if (version.is(Version.V1_15)) {
+            return Chunk_1_15::new;
+        } else if (version.is(Version.V1_14)) {
+            return Chunk_1_14::new;
+        } else if (version.is(Version.V1_13)) {
+            return Chunk_1_13::new;
+        } else if (version.is(Version.V1_12)) {
+            return Chunk_1_12::new;
+        }
+        return chunkPos -> null;
     }
 
     /**
@@ -181,35 +307,52 @@ public class ChunkFactory {
 
     public void reset() {
         this.unparsedChunks.clear();
+        for (ParseQueue queue : queues) {
+            queue.clear();
+        }
     }
 
+    /**
+     * Keep the light data for a chunk that has not arrived yet. The unparsed chunk takes over the reference to the
+     * provider's data.
+     */
     public void updateLight(CoordinateDim2D coords, DataTypeProvider provider) {
         UnparsedChunk unparsed = getUnparsedIfFresh(coords);
-        unparsed.lighting = provider;
+        unparsed.setLighting(provider);
+    }
+
+    /**
+     * Run a task for the given chunk. Tasks for the same chunk are run in the order they were given, tasks for
+     * different chunks may run in parallel. If the chunk is still waiting to be parsed, the task is run after it. If
+     * data for the chunk arrives later, it is not parsed until the task has run.
+     */
+    public void runOnFactoryThread(CoordinateDim2D chunkPos, Runnable r) {
+        // decide this now rather than on the executor, as the chunk may arrive before the executor gets to the task
+        queues[shardOf(chunkPos)].submit(chunkPos, r);
     }
 
-    public void runOnFactoryThread(Runnable r) {
-        executor.execute(r);
+    private static int shardOf(CoordinateDim2D chunkPos) {
+        return Math.floorMod(31 * chunkPos.getX() + chunkPos.getZ(), PARSER_THREADS);
     }
 
     public void unloadChunk(CoordinateDim2D coord) {
+        // no point in parsing a chunk that is already gone
+        queues[shardOf(coord)].remove(coord);
+
         UnparsedChunk unparsedChunk = this.unparsedChunks.get(coord);
         if (unparsedChunk != null) {
             unparsedChunk.shouldUnload = true;
         }
     }
 
-    protected UnparsedChunk getUnparsed(CoordinateDim2D location) {
-        return unparsedChunks.computeIfAbsent(location, UnparsedChunk::new);
-    }
-
     protected UnparsedChunk getUnparsedIfFresh(CoordinateDim2D location) {
         UnparsedChunk current = unparsedChunks.get(location);
 
-        // if the old one is stale, remove it
+        // if the old one is stale, replace it. The old one is released when it expires.
         if (current == null || current.shouldUnload) {
             current = new UnparsedChunk(location);
             unparsedChunks.put(location, current);
+            expiry.schedule(current);
         }
 
         return current;
@@ -217,23 +360,154 @@ public class ChunkFactory {
 }
 
 /**
- * Hold unparsed chunks and any separately sent data that needs to be added to it (tile entities and light data).
+ * Chunks waiting to be parsed by one of the executors, closest to the player first. A chunk is only kept once, if it is
+ * sent again before being parsed only the newest data is kept. Dropped chunks stay in the queue without data, so that
+ * the tasks waiting for them are still run by the executor.
+ * <p>
+ * The distances change as the player moves, so they are computed each time the next chunk is picked. Each executor
+ * only has a few hundred chunks waiting at most, so going through all of them is cheap compared to parsing one.
+ * <p>
+ * Tasks are given to the executor while holding the lock, so that the executor runs them in the same order as they
+ * were decided on here. A chunk is not parsed while tasks for it that were given before its data are still waiting on
+ * the executor, even if a chunk that arrived before it would otherwise pick it.
  */
-class UnparsedChunk {
-    private static final long MAX_WAIT_TIME = 1000 * 10;
+class ParseQueue {
+    private final Executor executor;
+    private final Map<CoordinateDim2D, PendingChunk> pending = new HashMap<>();
+    // the number of tasks for each chunk that have been given to the executor but have not finished yet
+    private final Map<CoordinateDim2D, Integer> queued = new HashMap<>();
+    private long sequence;
+
+    ParseQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Keep the data for a chunk, and have the executor run the parse task, which parses the closest chunk that is
+     * waiting.
+     */
+    synchronized void offer(CoordinateDim2D location, DataTypeProvider provider, Runnable parse) {
+        PendingChunk current = pending.get(location);
+        if (current == null) {
+            current = new PendingChunk(location, sequence++);
+            pending.put(location, current);
+        } else {
+            current.supersede();
+        }
+        current.provider = provider;
+
+        executor.execute(parse);
+    }
+
+    /**
+     * Take the chunk closest to the given position. If several chunks are equally close, the one that arrived first is
+     * taken. Chunks that still have tasks waiting on the executor are skipped, their own parse task comes after those.
+     */
+    synchronized PendingChunk poll(Coordinate2D player) {
+        PendingChunk next = null;
+        int nextDistance = Integer.MAX_VALUE;
+        for (PendingChunk current : pending.values()) {
+            if (queued.containsKey(current.location)) {
+                continue;
+            }
+
+            int distance = current.location.blockDistance(player);
+            if (distance < nextDistance || (distance == nextDistance && current.sequence < next.sequence)) {
+                next = current;
+                nextDistance = distance;
+            }
+        }
+
+        if (next != null) {
+            pending.remove(next.location);
+        }
+        return next;
+    }
+
+    /**
+     * Run a task for the given chunk. If the chunk is waiting to be parsed, the task is run once it has been parsed.
+     * Otherwise it is given to the executor, and data for the chunk that arrives in the meantime waits for it.
+     */
+    synchronized void submit(CoordinateDim2D location, Runnable task) {
+        PendingChunk current = pending.get(location);
+        if (current != null) {
+            current.after.add(task);
+            return;
+        }
+
+        queued.merge(location, 1, Integer::sum);
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                finished(location);
+            }
+        });
+    }
 
-    private final long initTime;
+    private synchronized void finished(CoordinateDim2D location) {
+        queued.computeIfPresent(location, (k, count) -> count == 1 ? null : count - 1);
+    }
+
+    synchronized void remove(CoordinateDim2D location) {
+        PendingChunk current = pending.get(location);
+        if (current != null) {
+            current.drop();
+        }
+    }
+
+    synchronized void clear() {
+        for (PendingChunk current : pending.values()) {
+            current.drop();
+        }
+    }
+}
+
+class PendingChunk {
+    final CoordinateDim2D location;
+    final long sequence;
+
+    DataTypeProvider provider;
+
+    // tasks for this chunk that were given before and after the current data arrived
+    final List<Runnable> before = new ArrayList<>();
+    final List<Runnable> after = new ArrayList<>();
+
+    PendingChunk(CoordinateDim2D location, long sequence) {
+        this.location = location;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Newer data for this chunk has arrived, so the old data is dropped. Tasks given so far came before the new data,
+     * so they need to run before it is parsed.
+     */
+    void supersede() {
+        drop();
+        before.addAll(after);
+        after.clear();
+    }
 
+    void drop() {
+        if (provider != null) {
+            provider.release();
+            provider = null;
+        }
+    }
+}
+
+/**
+ * Hold unparsed chunks and any separately sent data that needs to be added to it (tile entities and light data).
+ */
+class UnparsedChunk {
     CoordinateDim2D location;
     DataTypeProvider provider;
     DataTypeProvider lighting;
     Queue<TileEntity> tileEntities;
     boolean shouldUnload;
-    boolean parsingInProgress;
 
     public UnparsedChunk(CoordinateDim2D location) {
         this.location = location;
-        this.initTime = System.currentTimeMillis();
     }
 
     public void addTileEntity(TileEntity tileEntity) {
@@ -244,14 +518,31 @@ class UnparsedChunk {
     }
 
     public void setProvider(DataTypeProvider provider) {
+        if (this.provider != null) {
+            this.provider.release();
+        }
         this.provider = provider;
     }
 
+    public void setLighting(DataTypeProvider lighting) {
+        if (this.lighting != null) {
+            this.lighting.release();
+        }
+        this.lighting = lighting;
+    }
+
     /**
-     * If the chunk data itself does not arrive within a few seconds, the lighting/tile entity datA is discarded.
+     * Give up the references to the packet data, once it has been parsed or discarded.
      */
-    public boolean isStale() {
-        return System.currentTimeMillis() - initTime > MAX_WAIT_TIME;
+    public void release() {
+        if (provider != null) {
+            provider.release();
+            provider = null;
+        }
+        if (lighting != null) {
+            lighting.release();
+            lighting = null;
+        }
     }
 }
 
@@ -271,4 +562,4 @@ class TileEntity {
     public SpecificTag getTag() {
         return tag;
     }
-}
\ No newline at end of file
+}
@@ -15,6 +15,7 @@ import org.apache.commons.lang3.mutable.MutableBoolean;
 
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
@@ -200,16 +201,48 @@ public class ChunkImageFactory {
         return color;
     }
 
+    /**
+     * Computes the heights of all columns, section by section from the top down. This gives the same result as calling
+     * computeHeight for each column, but each section's blocks only have to be unpacked once and sections below the
+     * surface of every column are not looked at. If the server sent a heightmap, everything above the highest non-air
+     * block is skipped as well, so that usually only the surface block itself is checked. In the nether the surface is
+     * the roof, so there it is not useful.
+     */
     protected void computeHeightMap() {
-        if (this.heightMap == null) {
-            this.heightMap = new int[Chunk.SECTION_WIDTH * Chunk.SECTION_WIDTH];
+        boolean isNether = c.location.getDimension().equals(Dimension.NETHER);
+        int topSection = isNether ? 5 : c.getMaxSection();
+
+        int[] surface = isNether ? null : c.getServerHeightMap();
+        if (surface != null) {
+            int highest = Arrays.stream(surface).max().orElse(Integer.MIN_VALUE);
+            topSection = Math.min(topSection, Math.floorDiv(highest, Chunk.SECTION_HEIGHT));
+        }
+
+        int[] heights = new int[Chunk.SECTION_WIDTH * Chunk.SECTION_WIDTH];
+        boolean[] foundAir = new boolean[heights.length];
+        Arrays.fill(heights, ChunkSection.UNKNOWN_HEIGHT);
+        Arrays.fill(foundAir, !isNether);
+
+        int remaining = heights.length;
+        for (int sectionY = topSection; sectionY >= c.getMinSection() && remaining > 0; sectionY--) {
+            ChunkSection cs = c.getChunkSection(sectionY);
+            if (cs == null) {
+                Arrays.fill(foundAir, true);
+                continue;
+            }
+
+            remaining -= cs.computeHeights(heights, foundAir, sectionY * Chunk.SECTION_HEIGHT, surface);
         }
 
-        for (int x = 0; x < Chunk.SECTION_WIDTH; x++) {
-            for (int z = 0; z < Chunk.SECTION_WIDTH; z++) {
-                heightMap[z << 4 | x] = computeHeight(x, z);
+        int topBlock = (topSection * Chunk.SECTION_HEIGHT) + 15;
+        for (int i = 0; i < heights.length; i++) {
+            if (heights[i] == ChunkSection.UNKNOWN_HEIGHT) {
+                heights[i] = isNether ? 127 : 0;
+            } else if (isNether && heights[i] == topBlock) {
+                heights[i] = 127;
             }
         }
+        this.heightMap = heights;
     }
 
     /**
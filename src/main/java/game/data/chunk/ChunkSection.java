@@ -1,6 +1,5 @@
 package game.data.chunk;
 
-import game.data.chunk.palette.BlockState;
 import game.data.chunk.palette.DirectPalette;
 import game.data.chunk.palette.GlobalPaletteProvider;
 import game.data.chunk.palette.Palette;
@@ -14,12 +13,21 @@ import se.llbit.nbt.ByteTag;
 import se.llbit.nbt.CompoundTag;
 import se.llbit.nbt.Tag;
 
+import java.lang.invoke.VarHandle;
 import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Class to hold a 16 block tall chunk section.
+ * <p>
+ * Blocks are read without locking. Changes to the blocks are made while holding the section's lock, and the write
+ * stamp is odd while a change is in progress. Readers check that the stamp was even and did not change while they were
+ * reading, and otherwise read again while holding the lock.
  */
 public abstract class ChunkSection {
+    private static final BlockLocationEncoder LOCATION_ENCODER = new BlockLocationEncoder();
+    public static final int UNKNOWN_HEIGHT = Integer.MIN_VALUE;
+
     protected Chunk chunk;
 
     protected long[] blocks;
@@ -28,20 +36,21 @@ public abstract class ChunkSection {
     protected byte y;
     protected Palette palette;
 
-    BlockLocationEncoder locationHelper = new BlockLocationEncoder();
+    private volatile int writeStamp;
+    private int writeDepth;
 
     public abstract int getDataVersion();
 
     public ChunkSection(byte y, Palette palette, Chunk chunk) {
         this.chunk = chunk;
         this.y = y;
-        this.blockLight = new byte[2048];
-        this.skyLight = new byte[2048];
+        this.blockLight = LightStorage.dark();
+        this.skyLight = LightStorage.dark();
         this.palette = palette;
     }
 
     protected BlockLocationEncoder getLocationEncoder() {
-        return this.locationHelper;
+        return LOCATION_ENCODER;
     }
 
     public ChunkSection(int sectionY, Tag nbt) {
@@ -49,15 +58,20 @@ public abstract class ChunkSection {
     }
 
     public void setSkyLight(byte[] skyLight) {
-        this.skyLight = skyLight;
+        this.skyLight = LightStorage.share(skyLight);
     }
 
     public void setBlockLight(byte[] blockLight) {
-        this.blockLight = blockLight;
+        this.blockLight = LightStorage.share(blockLight);
     }
 
-    public void setBlocks(long[] blocks) {
-        this.blocks = blocks;
+    public synchronized void setBlocks(long[] blocks) {
+        beginWrite();
+        try {
+            this.blocks = blocks;
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -90,13 +104,19 @@ public abstract class ChunkSection {
         return y;
     }
 
-    public int computeHeight(int x, int z, MutableBoolean foundAir) {
-        for (int y = 15; y >= 0 ; y--) {
-            int blockStateId = getNumericBlockStateAt(x, y, z);
+    private BitSet getSolidIndices() {
+        return palette.getSolidIndices(GlobalPaletteProvider.getGlobalPalette(getDataVersion()));
+    }
 
-            BlockState state = GlobalPaletteProvider.getGlobalPalette(getDataVersion()).getState(blockStateId);
+    public int computeHeight(int x, int z, MutableBoolean foundAir) {
+        BitSet solid = getSolidIndices();
+        if (solid.isEmpty()) {
+            foundAir.setTrue();
+            return -1;
+        }
 
-            if (state == null || !state.isSolid()) {
+        for (int y = 15; y >= 0 ; y--) {
+            if (!solid.get(getPaletteIndex(x, y, z))) {
                 foundAir.setTrue();
                 continue;
             }
@@ -109,20 +129,160 @@ public abstract class ChunkSection {
         return -1;
     }
 
+    /**
+     * Compute the height of all columns in this section at once, see computeHeight. The blocks are unpacked once, after
+     * which each block is a single bit test. Sections without any solid blocks are skipped entirely.
+     * @param heights the height of each column (z << 4 | x), columns that already have a height are skipped. The heights
+     *                that are found are written to this array, offset by minY.
+     * @param foundAir for each column, whether air was found above the current section
+     * @param surface if not null, the highest non-air block of each column. Blocks above it are not looked at.
+     * @return the number of heights found
+     */
+    public int computeHeights(int[] heights, boolean[] foundAir, int minY, int[] surface) {
+        BitSet solid = getSolidIndices();
+        if (solid.isEmpty()) {
+            Arrays.fill(foundAir, true);
+            return 0;
+        }
+
+        short[] indices = null;
+        int found = 0;
+        for (int column = 0; column < heights.length; column++) {
+            if (heights[column] != UNKNOWN_HEIGHT) {
+                continue;
+            }
+
+            int top = 15;
+            if (surface != null && surface[column] - minY < 15) {
+                top = surface[column] - minY;
+                foundAir[column] = true;
+            }
+            if (top < 0) {
+                continue;
+            }
+
+            // only unpack the blocks once a column actually reaches into this section
+            if (indices == null) {
+                indices = getPaletteIndices();
+            }
+
+            for (int y = top; y >= 0; y--) {
+                if (!solid.get(indices[y << 8 | column] & 0xFFFF)) {
+                    foundAir[column] = true;
+                    continue;
+                }
+
+                if (foundAir[column]) {
+                    heights[column] = minY + y;
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
     public int getNumericBlockStateAt(int x, int y, int z) {
-        return palette.stateFromId(getPaletteIndex(x, y, z));
+        return read(BlockLocationEncoder.blockNumber(x, y, z), true);
     }
 
     public int getPaletteIndex(int x, int y, int z) {
-        return getPaletteIndex(x, y, z, palette.getBitsPerBlock());
+        return read(BlockLocationEncoder.blockNumber(x, y, z), false);
+    }
+
+    private int read(int blockNumber, boolean toState) {
+        int stamp = writeStamp;
+        if ((stamp & 1) == 0) {
+            Palette palette = this.palette;
+            long[] blocks = this.blocks;
+
+            // if the blocks are being resized, the bits per block may not match the blocks array yet. The bits per
+            // block are only read once, as the palette may change them while this is running.
+            int bitsPerBlock = palette.getBitsPerBlock();
+            if (fits(blocks, bitsPerBlock)) {
+                int value = readUnlocked(palette, blocks, bitsPerBlock, blockNumber, toState);
+
+                // make sure the reads above are done before the stamp is checked again
+                VarHandle.acquireFence();
+                if (stamp == writeStamp) {
+                    return value;
+                }
+            }
+        }
+
+        synchronized (this) {
+            return readUnlocked(palette, blocks, palette.getBitsPerBlock(), blockNumber, toState);
+        }
+    }
+
+    private int readUnlocked(Palette palette, long[] blocks, int bitsPerBlock, int blockNumber, boolean toState) {
+        int index = 0;
+        if (blocks.length != 0 && bitsPerBlock != 0) {
+            index = getLocationEncoder().fetch(blocks, blockNumber, bitsPerBlock);
+        }
+        return toState ? palette.stateFromId(index) : index;
     }
 
-    private synchronized int getPaletteIndex(int x, int y, int z, int bitsPerBlock) {
+    /**
+     * Get the palette indices of all blocks in this section at once, in block number order (see getBlockIndex).
+     * Indices are stored as unsigned shorts.
+     */
+    public short[] getPaletteIndices() {
+        short[] indices = new short[BlockLocationEncoder.BLOCKS_PER_SECTION];
+
+        int stamp = writeStamp;
+        if ((stamp & 1) == 0) {
+            long[] blocks = this.blocks;
+            int bitsPerBlock = palette.getBitsPerBlock();
+
+            if (fits(blocks, bitsPerBlock)) {
+                readAllUnlocked(blocks, bitsPerBlock, indices);
+
+                VarHandle.acquireFence();
+                if (stamp == writeStamp) {
+                    return indices;
+                }
+            }
+        }
+
+        synchronized (this) {
+            readAllUnlocked(blocks, palette.getBitsPerBlock(), indices);
+            return indices;
+        }
+    }
+
+    private void readAllUnlocked(long[] blocks, int bitsPerBlock, short[] indices) {
         if (blocks.length == 0 || bitsPerBlock == 0) {
-            return 0;
+            Arrays.fill(indices, (short) 0);
+        } else {
+            getLocationEncoder().fetchAll(blocks, bitsPerBlock, indices);
+        }
+    }
+
+    /**
+     * Whether the blocks array is long enough for the given bits per block, so that it can be read without the lock.
+     * Without block data every index is 0, so nothing is read from the array.
+     */
+    private boolean fits(long[] blocks, int bitsPerBlock) {
+        return blocks.length == 0 || bitsPerBlock == 0 || getLocationEncoder().fits(blocks, bitsPerBlock);
+    }
+
+    /**
+     * Must be called while holding the lock, before changing the blocks. Calls may be nested.
+     */
+    private void beginWrite() {
+        if (writeDepth++ == 0) {
+            writeStamp++;
+
+            // the stamp is volatile, but that does not stop the writes that follow from becoming visible before it
+            VarHandle.storeStoreFence();
         }
+    }
 
-        return getLocationEncoder().setTo(x, y, z, bitsPerBlock).fetch(blocks);
+    private void endWrite() {
+        if (--writeDepth == 0) {
+            writeStamp++;
+        }
     }
 
     public void write(PacketBuilder packet) {
@@ -155,55 +315,111 @@ public abstract class ChunkSection {
     }
 
     public synchronized void setBlockAt(Coordinate3D coords, int blockStateId) {
-        int index = palette.getIndexFor(this, blockStateId);
+        beginWrite();
+        try {
+            int index = palette.getIndexFor(this, blockStateId);
+
+            int blockNumber = BlockLocationEncoder.blockNumber(coords.getX(), coords.getY(), coords.getZ());
+            getLocationEncoder().write(blocks, blockNumber, palette.getBitsPerBlock(), index);
+        } finally {
+            endWrite();
+        }
+    }
 
-        getLocationEncoder().setTo(
-                coords.getX(), coords.getY(), coords.getZ(),
-                palette.getBitsPerBlock()
-        );
-        getLocationEncoder().write(blocks, index);
+    /**
+     * Set a number of blocks at once. All new states are added to the palette first, so that the blocks array is
+     * resized at most once.
+     */
+    public synchronized void setBlocksAt(BlockChanges.Section changes) {
+        beginWrite();
+        try {
+            palette.addStates(this, changes.getBlockStateIds());
+
+            for (int i = 0; i < changes.size(); i++) {
+                setBlockAt(changes.getPosition(i), changes.getBlockStateId(i));
+            }
+        } finally {
+            endWrite();
+        }
     }
 
     /**
      * When the bits per block increases, we must rewrite the blocks array.
      */
     public synchronized void resizeBlocks(int newBitsPerBlock) {
-        int newSize = newBitsPerBlock * 64;
-        long[] newBlocks = new long[newSize];
+        long[] newBlocks = new long[blocksLength(newBitsPerBlock)];
 
         if (blocks == null) {
-            this.blocks = newBlocks;
+            beginWrite();
+            try {
+                this.blocks = newBlocks;
+            } finally {
+                endWrite();
+            }
             return;
         }
 
         copyBlocks(newBlocks, newBitsPerBlock);
     }
 
-    public synchronized void copyBlocks(long[] newBlocks, int newBitsPerBlock) {
-        BlockLocationEncoder locationHelper = getLocationEncoder();
-        for (int x = 0; x < 16; x++) {
-            for (int y = 0; y < 16; y++) {
-                for (int z = 0; z < 16; z++) {
-                    int index = getPaletteIndex(x, y, z);
+    /**
+     * The length of the blocks array for the given bits per block.
+     */
+    protected int blocksLength(int bitsPerBlock) {
+        return bitsPerBlock * 64;
+    }
 
-                    locationHelper.setTo(x, y, z, newBitsPerBlock).write(newBlocks, index);
-                }
+    public synchronized void copyBlocks(long[] newBlocks, int newBitsPerBlock) {
+        beginWrite();
+        try {
+            int bitsPerBlock = palette.getBitsPerBlock();
+
+            // if there is no block data, every block has index 0, which the new array already contains
+            if (blocks.length != 0 && bitsPerBlock != 0) {
+                short[] indices = new short[BlockLocationEncoder.BLOCKS_PER_SECTION];
+                getLocationEncoder().fetchAll(blocks, bitsPerBlock, indices);
+                getLocationEncoder().writeAll(indices, newBitsPerBlock, newBlocks);
             }
+            this.blocks = newBlocks;
+        } finally {
+            endWrite();
         }
-        this.blocks = newBlocks;
     }
 
-    public byte[] getSkyLight() { return skyLight; }
-    public byte[] getBlockLight() { return blockLight; }
+    /**
+     * Get the light arrays so that they can be modified. If the section uses one of the shared arrays, it gets its own
+     * copy first, see LightStorage.
+     */
+    public synchronized byte[] getSkyLight() { return skyLight = LightStorage.writable(skyLight); }
+    public synchronized byte[] getBlockLight() { return blockLight = LightStorage.writable(blockLight); }
 
-    public void resetBlocks() {
-        this.blocks = new long[256];
-        this.palette = Palette.empty();
+    /**
+     * Get the light arrays without copying them, for writing them out. These may be shared between sections, so they
+     * must not be modified.
+     */
+    public byte[] readSkyLight() { return skyLight; }
+    public byte[] readBlockLight() { return blockLight; }
+
+    public synchronized void resetBlocks() {
+        beginWrite();
+        try {
+            this.blocks = new long[256];
+            this.palette = Palette.empty();
+        } finally {
+            endWrite();
+        }
     }
 
     public void copyTo(ChunkSection other) {
-        other.blocks = this.blocks;
-        other.palette = this.palette;
+        synchronized (other) {
+            other.beginWrite();
+            try {
+                other.blocks = this.blocks;
+                other.palette = this.palette;
+            } finally {
+                other.endWrite();
+            }
+        }
     }
 }
 
@@ -0,0 +1,59 @@
+package game.data.chunk;
+
+import java.util.Arrays;
+
+/**
+ * Light levels are stored as one nibble per block, so 2048 bytes for each section. Most sections are either entirely
+ * dark (underground) or entirely lit (in the sky), so those sections all share a single array. Shared arrays must
+ * never be modified, sections make their own copy before handing out an array that may be changed.
+ */
+public final class LightStorage {
+    public static final int SIZE = 2048;
+
+    private static final byte[] DARK = new byte[SIZE];
+    private static final byte[] LIT = new byte[SIZE];
+    static {
+        Arrays.fill(LIT, (byte) 0xFF);
+    }
+
+    private LightStorage() { }
+
+    /**
+     * The shared array for a section without any light. Must not be modified.
+     */
+    public static byte[] dark() {
+        return DARK;
+    }
+
+    /**
+     * Replace the given array by a shared one if all of its light levels are either 0 or 15. Arrays that are not a
+     * full section (such as the empty arrays used when there is no light data) are kept as they are.
+     */
+    public static byte[] share(byte[] light) {
+        if (light == null || light.length != SIZE || isShared(light)) {
+            return light;
+        }
+
+        byte first = light[0];
+        if (first != 0 && first != (byte) 0xFF) {
+            return light;
+        }
+        for (byte b : light) {
+            if (b != first) {
+                return light;
+            }
+        }
+        return first == 0 ? DARK : LIT;
+    }
+
+    /**
+     * Get an array that may be modified, which is a copy if the given array is shared.
+     */
+    public static byte[] writable(byte[] light) {
+        return isShared(light) ? light.clone() : light;
+    }
+
+    private static boolean isShared(byte[] light) {
+        return light == DARK || light == LIT;
+    }
+}
@@ -3,6 +3,7 @@ package game.data.chunk.palette;
 import packets.builder.PacketBuilder;
 import se.llbit.nbt.SpecificTag;
 
+import java.util.BitSet;
 import java.util.List;
 
 public class DirectPalette extends Palette {
@@ -33,6 +34,11 @@ public class DirectPalette extends Palette {
         return false;
     }
 
+    @Override
+    public BitSet getSolidIndices(GlobalPalette global) {
+        return global.getSolidStates();
+    }
+
     @Override
     public List<SpecificTag> toNbt() {
         return List.of();
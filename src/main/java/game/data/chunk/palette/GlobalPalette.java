@@ -17,6 +17,7 @@ public class GlobalPalette implements StateProvider {
     private final Map<Integer, BlockState> states;
     private final Map<BlockStateIdentifier, BlockState> nameStates;
     private String version;
+    private volatile BitSet solidStates;
 
     /**
      * Instantiate a global palette using the given Minecraft version.
@@ -73,6 +74,24 @@ public class GlobalPalette implements StateProvider {
     public BlockState getState(CompoundTag nbt) {
         return nameStates.get(new BlockStateIdentifier(nbt));
     }
+
+    /**
+     * Get the IDs of all solid states. This is computed on first use, as the block colours need to be loaded to know
+     * which blocks are solid. The returned set is shared and must not be modified.
+     */
+    public BitSet getSolidStates() {
+        BitSet solid = solidStates;
+        if (solid == null) {
+            solid = new BitSet();
+            for (BlockState state : states.values()) {
+                if (state.isSolid()) {
+                    solid.set(state.getNumericId());
+                }
+            }
+            solidStates = solid;
+        }
+        return solid;
+    }
 }
 
 class BlockStateIdentifier {
@@ -6,7 +6,8 @@ import game.data.registries.RegistryLoader;
 import game.protocol.Protocol;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class manages the global palettes. It can hold not only a palette for the current game version, but also for
@@ -15,17 +16,15 @@ import java.util.HashMap;
 public final class GlobalPaletteProvider {
     private GlobalPaletteProvider() { }
 
-    private static HashMap<Integer, GlobalPalette> palettes = new HashMap<>();
+    private static final Map<Integer, GlobalPalette> palettes = new ConcurrentHashMap<>();
 
     /**
      * Retrieves a global palette based on the data version number. If the palette is not already known, it will be
-     * created through requestPalette.
+     * created through requestPalette. Chunks are parsed on several threads, so this makes sure each palette is only
+     * created once and that every thread gets the same instance.
      */
     public static GlobalPalette getGlobalPalette(int dataVersion) {
-        if (palettes.containsKey(dataVersion)) {
-            return palettes.get(dataVersion);
-        }
-        return requestPalette(dataVersion);
+        return palettes.computeIfAbsent(dataVersion, GlobalPaletteProvider::requestPalette);
     }
 
     /**
@@ -43,9 +42,7 @@ public final class GlobalPaletteProvider {
     private static GlobalPalette requestPalette(int dataVersion) {
         Protocol version = ProtocolVersionHandler.getInstance().getProtocolByDataVersion(dataVersion);
         try {
-            GlobalPalette p = RegistryLoader.forVersion(version.getVersion()).generateGlobalPalette();
-            palettes.put(dataVersion, p);
-            return p;
+            return RegistryLoader.forVersion(version.getVersion()).generateGlobalPalette();
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -15,7 +15,13 @@ import java.util.*;
  */
 public class Palette {
     protected int bitsPerBlock;
+    // the palette array grows by doubling, so only the first size entries are used
     private int[] palette;
+    private int size;
+    // reverse lookup of palette indices, only created once blocks are changed
+    private PaletteIndex index;
+    // solid palette indices, computed on first use and again once states have been added
+    private volatile SolidIndices solid;
     StateProvider stateProvider;
 
     protected Palette() {
@@ -25,12 +31,14 @@ public class Palette {
     private Palette(int bitsPerBlock, int[] palette) {
         this.bitsPerBlock = bitsPerBlock;
         this.palette = palette;
+        this.size = palette.length;
         this.stateProvider = GlobalPaletteProvider.getGlobalPalette();
         synchronizeBitsPerBlock();
     }
 
     Palette(int[] arr) {
         this.palette = arr;
+        this.size = arr.length;
         this.bitsPerBlock = computeBitsPerBlock(arr.length - 1);
         this.stateProvider = GlobalPaletteProvider.getGlobalPalette();
     }
@@ -57,16 +65,15 @@ public class Palette {
             throw new IllegalArgumentException("Bits per block may not be more than 16. Given: " + this.bitsPerBlock);
         }
 
-        while (this.bitsPerBlock > computeBitsPerBlock(palette.length - 1)) {
-            int[] newPalette = new int[palette.length + 1];
-            System.arraycopy(palette, 0, newPalette, 0, palette.length);
-            this.palette = newPalette;
+        while (this.bitsPerBlock > computeBitsPerBlock(size - 1)) {
+            append(0);
         }
     }
 
     public Palette(int dataVersion, ListTag nbt) {
         this.bitsPerBlock = computeBitsPerBlock(nbt.size() - 1);
         this.palette = new int[nbt.size()];
+        this.size = palette.length;
 
         GlobalPalette global = GlobalPaletteProvider.getGlobalPalette(dataVersion);
         for (int i = 0; i < nbt.size(); i++) {
@@ -117,10 +124,12 @@ public class Palette {
         if (bitsPerBlock > 8) {
             return index;
         }
-        if (palette.length == 0) {
+        if (size == 0) {
             return 0;
         }
-        if (index >= palette.length) {
+        // read without the section's lock, the new size may be visible before the grown array is
+        int[] palette = this.palette;
+        if (index >= size || index >= palette.length) {
             return 0;
         }
 
@@ -128,7 +137,34 @@ public class Palette {
     }
 
     public boolean isEmpty() {
-        return palette.length == 0 || (palette.length == 1 && palette[0] == 0);
+        return size == 0 || (size == 1 && palette[0] == 0);
+    }
+
+    /**
+     * Get the palette indices of which the state is solid in the given global palette. If none of the indices are
+     * solid, the section consists of only air (or other non-solid blocks) and can be skipped when looking for the
+     * surface. The returned set must not be modified.
+     */
+    public BitSet getSolidIndices(GlobalPalette global) {
+        if (bitsPerBlock > 8) {
+            return global.getSolidStates();
+        }
+
+        SolidIndices solid = this.solid;
+        if (solid == null || solid.global != global || solid.size != size) {
+            BitSet solidStates = global.getSolidStates();
+            int[] states = entries();
+
+            BitSet indices = new BitSet(states.length);
+            for (int i = 0; i < states.length; i++) {
+                if (solidStates.get(states[i])) {
+                    indices.set(i);
+                }
+            }
+            solid = new SolidIndices(global, states.length, indices);
+            this.solid = solid;
+        }
+        return solid.indices;
     }
 
     /**
@@ -141,7 +177,7 @@ public class Palette {
             throw new UnsupportedOperationException("Cannot create palette NBT without a global palette.");
         }
 
-        for (int i : palette) {
+        for (int i : entries()) {
             State state = stateProvider.getState(i);
             if (state == null) { state = stateProvider.getDefaultState(); }
 
@@ -157,8 +193,8 @@ public class Palette {
 
     public void write(PacketBuilder packet) {
         packet.writeByte((byte) bitsPerBlock);
-        packet.writeVarInt(palette.length);
-        packet.writeVarIntArray(palette);
+        packet.writeVarInt(size);
+        packet.writeVarIntArray(entries());
     }
 
     @Override
@@ -169,13 +205,13 @@ public class Palette {
         Palette palette1 = (Palette) o;
 
         if (bitsPerBlock != palette1.bitsPerBlock) return false;
-        return Arrays.equals(palette, palette1.palette);
+        return Arrays.equals(entries(), palette1.entries());
     }
 
     @Override
     public int hashCode() {
         int result = bitsPerBlock;
-        result = 31 * result + Arrays.hashCode(palette);
+        result = 31 * result + Arrays.hashCode(entries());
         return result;
     }
 
@@ -183,35 +219,94 @@ public class Palette {
     public String toString() {
         return "Palette{" +
                 "bitsPerBlock=" + bitsPerBlock +
-                ", palette(" + palette.length + ")=" + Arrays.toString(palette) +
+                ", palette(" + size + ")=" + Arrays.toString(entries()) +
                 '}';
     }
 
 
     public int getIndexFor(ChunkSection section, int blockStateId) {
-        for (int i = 0; i < palette.length; i++) {
-            if (palette[i] == blockStateId) {
-                return i;
-            }
+        int index = indexOf(blockStateId);
+        if (index >= 0) {
+            return index;
         }
 
-        int[] newPalette = new int[palette.length + 1];
-        System.arraycopy(palette, 0, newPalette, 0, palette.length);
-        newPalette[palette.length] = blockStateId;
-        this.palette = newPalette;
+        index = append(blockStateId);
+        resizeIfNeeded(section);
+
+        return index;
+    }
+
+
+    /**
+     * Add all of the given states that are not in the palette yet, resizing the section's blocks only once.
+     */
+    public void addStates(ChunkSection section, int[] blockStateIds) {
+        for (int blockStateId : blockStateIds) {
+            if (indexOf(blockStateId) < 0) {
+                append(blockStateId);
+            }
+        }
+        resizeIfNeeded(section);
+    }
 
-        int newBitsPerBlock = computeBitsPerBlock(palette.length - 1);
+    private void resizeIfNeeded(ChunkSection section) {
+        int newBitsPerBlock = computeBitsPerBlock(size - 1);
         if (bitsPerBlock != newBitsPerBlock) {
             section.resizeBlocks(newBitsPerBlock);
             this.bitsPerBlock = newBitsPerBlock;
         }
+    }
 
-        return palette.length - 1;
+    private int indexOf(int blockStateId) {
+        if (index == null) {
+            index = new PaletteIndex(size);
+            for (int i = 0; i < size; i++) {
+                index.put(palette[i], i);
+            }
+        }
+        return index.get(blockStateId);
     }
 
+    /**
+     * Add a state to the end of the palette, doubling the array if it's full.
+     * @return the index of the new state
+     */
+    private int append(int blockStateId) {
+        if (size == palette.length) {
+            palette = Arrays.copyOf(palette, Math.max(4, palette.length * 2));
+        }
+        palette[size] = blockStateId;
+        if (index != null) {
+            index.put(blockStateId, size);
+        }
+        return size++;
+    }
+
+    /**
+     * The states in this palette, without any unused space at the end of the array.
+     */
+    private int[] entries() {
+        return palette == null || size == palette.length ? palette : Arrays.copyOf(palette, size);
+    }
 
     public int size() {
-        return palette.length;
+        return size;
+    }
+
+    /**
+     * The solid indices of the first size states of the palette. States are only ever appended, so the set remains
+     * correct for as long as the palette size is unchanged.
+     */
+    private static final class SolidIndices {
+        private final GlobalPalette global;
+        private final int size;
+        private final BitSet indices;
+
+        SolidIndices(GlobalPalette global, int size, BitSet indices) {
+            this.global = global;
+            this.size = size;
+            this.indices = indices;
+        }
     }
 }
 
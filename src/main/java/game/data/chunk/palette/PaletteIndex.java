@@ -0,0 +1,93 @@
+package game.data.chunk.palette;
+
+import java.util.Arrays;
+
+/**
+ * Reverse lookup from block state to palette index, so that finding the index of a block state does not require a
+ * scan of the palette. Uses open addressing with linear probing over two int arrays, which avoids boxing the keys and
+ * values. The table is doubled in size when it becomes half full.
+ */
+class PaletteIndex {
+    private static final int EMPTY = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    PaletteIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Get the palette index of the given block state.
+     * @return the index, or -1 if the state is not in the palette
+     */
+    int get(int blockStateId) {
+        int mask = keys.length - 1;
+        for (int slot = hash(blockStateId) & mask; ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == blockStateId) {
+                return values[slot];
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Add a block state to the index. If the state is already present, the existing index is kept, as palettes read
+     * from the server may contain duplicates and the first one should be used.
+     */
+    void put(int blockStateId, int index) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+
+        int mask = keys.length - 1;
+        for (int slot = hash(blockStateId) & mask; ; slot = (slot + 1) & mask) {
+            int key = keys[slot];
+            if (key == blockStateId) {
+                return;
+            }
+            if (key == EMPTY) {
+                keys[slot] = blockStateId;
+                values[slot] = index;
+                size++;
+                return;
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.size = 0;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Block state IDs are mostly small sequential numbers, so they are mixed to spread them across the table.
+     */
+    private static int hash(int blockStateId) {
+        int h = blockStateId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
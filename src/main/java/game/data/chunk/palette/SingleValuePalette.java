@@ -2,6 +2,7 @@ package game.data.chunk.palette;
 
 import se.llbit.nbt.*;
 
+import java.util.BitSet;
 import java.util.List;
 
 public class SingleValuePalette extends Palette {
@@ -27,6 +28,16 @@ public class SingleValuePalette extends Palette {
         return val;
     }
 
+    /**
+     * Every block has index 0, so the set is either empty (e.g. a section of only air) or contains only 0.
+     */
+    @Override
+    public BitSet getSolidIndices(GlobalPalette global) {
+        BitSet solid = new BitSet(1);
+        solid.set(0, global.getSolidStates().get(val));
+        return solid;
+    }
+
     @Override
     public List<SpecificTag> toNbt() {
         return List.of(stateProvider.getState(val).toNbt());
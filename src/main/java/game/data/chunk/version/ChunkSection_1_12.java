@@ -54,10 +54,11 @@ public class ChunkSection_1_12 extends ChunkSection {
 
         if (blocks.length == 0) { return; }
 
+        short[] indices = getPaletteIndices();
         for (int y = 0; y < Chunk.SECTION_HEIGHT; y++) {
             for (int z = 0; z < Chunk.SECTION_WIDTH; z++) {
                 for (int x = 0; x < Chunk.SECTION_WIDTH; x++) {
-                    int data = getPaletteIndex(x, y, z);
+                    int data = Short.toUnsignedInt(indices[getBlockIndex(x, y, z)]);
                     this.blockStates[x][y][z] = palette.stateFromId(data);
                 }
             }
@@ -71,10 +71,12 @@ public class ChunkSection_1_13 extends ChunkSection {
         ChunkSection newSection = this.chunk.createNewChunkSection(this.y, Palette.empty());
         newSection.setBlocks(new long[256]);
 
+        short[] indices = getPaletteIndices();
         for (int y = 0; y < 16; y++) {
             for (int z = 0; z < 16; z++) {
                 for (int x = 0; x < 16; x++) {
-                    newSection.setBlockAt(new Coordinate3D(x, y, z), getNumericBlockStateAt(x, y, z));
+                    int state = palette.stateFromId(Short.toUnsignedInt(indices[getBlockIndex(x, y, z)]));
+                    newSection.setBlockAt(new Coordinate3D(x, y, z), state);
                 }
             }
         }
@@ -14,11 +14,11 @@ public class ChunkSection_1_16 extends ChunkSection_1_15 {
         return VERSION.dataVersion;
     }
 
-    private final BlockLocationEncoder blockLocationEncoder = new BlockLocationEncoder_1_16();
+    private static final BlockLocationEncoder LOCATION_ENCODER = new BlockLocationEncoder_1_16();
 
     @Override
     protected BlockLocationEncoder getLocationEncoder() {
-        return blockLocationEncoder;
+        return LOCATION_ENCODER;
     }
 
     public ChunkSection_1_16(byte y, Palette palette, Chunk chunk) {
@@ -30,20 +30,12 @@ public class ChunkSection_1_16 extends ChunkSection_1_15 {
     }
 
     /**
-     * When the bits per block increases, we must rewrite the blocks array.
+     * Indices no longer span multiple longs, so the blocks array is a little longer.
      */
     @Override
-    public synchronized void resizeBlocks(int newBitsPerBlock) {
-        int blocksPerLong = 64 / newBitsPerBlock;
-        int newSize = (int) Math.ceil(4096.0 / blocksPerLong);
-        long[] newBlocks = new long[newSize];
-
-        if (blocks == null) {
-            this.blocks = newBlocks;
-            return;
-        }
-
-        copyBlocks(newBlocks, newBitsPerBlock);
+    protected int blocksLength(int bitsPerBlock) {
+        int blocksPerLong = 64 / bitsPerBlock;
+        return (int) Math.ceil(4096.0 / blocksPerLong);
     }
 }
 
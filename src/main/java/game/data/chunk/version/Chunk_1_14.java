@@ -4,7 +4,10 @@ import config.Config;
 import config.Version;
 import game.data.coordinates.CoordinateDim2D;
 import game.data.chunk.ChunkSection;
+import game.data.chunk.LightStorage;
 import game.data.chunk.palette.Palette;
+import game.data.chunk.version.encoder.BlockLocationEncoder;
+import game.data.chunk.version.encoder.BlockLocationEncoder_1_16;
 import game.protocol.Protocol;
 import javafx.util.Pair;
 import packets.DataTypeProvider;
@@ -30,6 +33,8 @@ public class Chunk_1_14 extends Chunk_1_13 {
     public int getDataVersion() { return VERSION.dataVersion; }
 
     SpecificTag heightMap;
+    // heightmaps read from saved chunks may not match the blocks, so only the ones from the server are used
+    private boolean heightMapFromServer;
 
     public Chunk_1_14(CoordinateDim2D location) {
         super(location);
@@ -66,6 +71,45 @@ public class Chunk_1_14 extends Chunk_1_13 {
     @Override
     protected void parseHeightMaps(DataTypeProvider dataProvider) {
         heightMap = dataProvider.readNbtTag();
+        heightMapFromServer = true;
+        resetChangedBlocks();
+    }
+
+    /**
+     * Decode the WORLD_SURFACE heightmap. Each value is the height above the highest non-air block, relative to the
+     * bottom of the world. Before 1.16 the values are packed tightly, after that they no longer span multiple longs.
+     */
+    @Override
+    protected int[] getServerHeightMap() {
+        if (!heightMapFromServer || hasChangedBlocks() || heightMap == null) {
+            return null;
+        }
+
+        long[] packed = heightMap.asCompound().get("WORLD_SURFACE").longArray();
+        int columns = SECTION_WIDTH * SECTION_WIDTH;
+        int minY = getMinBlockSection() * SECTION_HEIGHT;
+        int worldHeight = (getMaxSection() + 1) * SECTION_HEIGHT - minY;
+        int bits = Integer.SIZE - Integer.numberOfLeadingZeros(worldHeight);
+        int valuesPerLong = 64 / bits;
+
+        boolean padded;
+        if (packed.length == columns * bits / 64) {
+            padded = false;
+        } else if (packed.length == (columns + valuesPerLong - 1) / valuesPerLong) {
+            padded = true;
+        } else {
+            return null;
+        }
+
+        int[] heights = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            int value = padded
+                    ? BlockLocationEncoder_1_16.decode(packed, i, bits)
+                    : BlockLocationEncoder.decode(packed, i, bits);
+
+            heights[i] = minY + value - 1;
+        }
+        return heights;
     }
 
     @Override
@@ -117,11 +161,11 @@ public class Chunk_1_14 extends Chunk_1_13 {
         BitSet emptySkyLightMask = BitSet.valueOf(new long[]{(long) provider.readVarInt()});
         BitSet emptyBlockLightMask = BitSet.valueOf(new long[]{(long) provider.readVarInt()});
 
-        parseLightArray(skyLightMask, emptySkyLightMask, provider, ChunkSection::setSkyLight, ChunkSection::getSkyLight);
-        parseLightArray(blockLightMask, emptyBlockLightMask, provider, ChunkSection::setBlockLight, ChunkSection::getBlockLight);
+        parseLightArray(skyLightMask, emptySkyLightMask, provider, ChunkSection::setSkyLight);
+        parseLightArray(blockLightMask, emptyBlockLightMask, provider, ChunkSection::setBlockLight);
     }
 
-    protected void parseLightArray(BitSet mask, BitSet emptyMask, DataTypeProvider provider, BiConsumer<ChunkSection, byte[]> c, Function<ChunkSection, byte[]> get) {
+    protected void parseLightArray(BitSet mask, BitSet emptyMask, DataTypeProvider provider, BiConsumer<ChunkSection, byte[]> c) {
         for (int sectionY = getMinSection(); sectionY <= (getMaxSection() + 1) && (!mask.isEmpty() || !emptyMask.isEmpty()); sectionY++) {
             ChunkSection s = getChunkSection(sectionY);
             if (s == null) {
@@ -131,10 +175,11 @@ public class Chunk_1_14 extends Chunk_1_13 {
                 setChunkSection(sectionY, s);
             }
 
-            // Mask tells us if a section is present or not
+            // Mask tells us if a section is present or not. The empty mask marks sections that have no light at all,
+            // those all share the same array. Sections in neither mask keep their current light.
             if (!mask.get(sectionY - getMinSection())) {
-                if (!emptyMask.get(sectionY - getMinSection())) {
-                    c.accept(s, new byte[2048]);
+                if (emptyMask.get(sectionY - getMinSection())) {
+                    c.accept(s, LightStorage.dark());
                 }
                 emptyMask.set(sectionY - getMinSection(), false);
                 continue;
@@ -166,8 +211,8 @@ public class Chunk_1_14 extends Chunk_1_13 {
     public PacketBuilder toLightPacket() {
         PacketBuilder packet = buildLightPacket();
 
-        Pair<Integer, PacketBuilder> skyLight = writeLightToPacket(ChunkSection::getSkyLight);
-        Pair<Integer, PacketBuilder> blockLight = writeLightToPacket(ChunkSection::getBlockLight);
+        Pair<Integer, PacketBuilder> skyLight = writeLightToPacket(ChunkSection::readSkyLight);
+        Pair<Integer, PacketBuilder> blockLight = writeLightToPacket(ChunkSection::readBlockLight);
 
         packet.writeVarInt(skyLight.getKey());
         packet.writeVarInt(blockLight.getKey());
@@ -176,8 +221,8 @@ public class Chunk_1_14 extends Chunk_1_13 {
         packet.writeVarInt(0);
         packet.writeVarInt(0);
 
-        packet.writeByteArray(skyLight.getValue().toArray());
-        packet.writeByteArray(blockLight.getValue().toArray());
+        packet.writeByteArray(skyLight.getValue());
+        packet.writeByteArray(blockLight.getValue());
 
         return packet;
     }
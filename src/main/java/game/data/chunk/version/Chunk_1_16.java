@@ -1,6 +1,7 @@
 package game.data.chunk.version;
 
 import config.Version;
+import game.data.chunk.BlockChanges;
 import game.data.chunk.ChunkSection;
 import game.data.chunk.palette.Palette;
 import game.data.coordinates.Coordinate3D;
@@ -9,9 +10,6 @@ import packets.DataTypeProvider;
 import packets.builder.PacketBuilder;
 import se.llbit.nbt.SpecificTag;
 
-import java.util.ArrayList;
-import java.util.Collection;
-
 /**
  * Support for chunks of version 1.16.2+. 1.16.0 and 1.16.1 are not supported.
  */
@@ -51,11 +49,10 @@ public class Chunk_1_16 extends Chunk_1_15 {
     }
 
     @Override
-    public void updateBlocks(Coordinate3D pos, DataTypeProvider provider) {
+    public void readBlockChanges(Coordinate3D pos, DataTypeProvider provider, BlockChanges changes) {
         provider.readBoolean();
 
         int count = provider.readVarInt();
-        Collection<Coordinate3D> toUpdate = new ArrayList<>();
         while (count-- > 0) {
             long blockChange = provider.readVarLong();
             int blockId = (int) blockChange >>> 12;
@@ -65,12 +62,8 @@ public class Chunk_1_16 extends Chunk_1_15 {
             int y = (int) (blockChange     ) & 0x0F;
 
             // since updateBlock expects the height to be [0-256], we add in the section coordinates.
-            Coordinate3D blockPos = new Coordinate3D(x, pos.getY() * 16 + y, z);
-            toUpdate.add(blockPos);
-
-            updateBlock(blockPos, blockId, true);
+            changes.add(new Coordinate3D(x, pos.getY() * 16 + y, z), blockId);
         }
-        this.getChunkImageFactory().recomputeHeights(toUpdate);
     }
 
     @Override
@@ -117,8 +117,8 @@ public class Chunk_1_17 extends Chunk_1_16 {
     public PacketBuilder toLightPacket() {
         PacketBuilder packet = buildLightPacket();
 
-        Pair<BitSet, PacketBuilder> skyLight = writeLightToPacket(ChunkSection::getSkyLight);
-        Pair<BitSet, PacketBuilder> blockLight = writeLightToPacket(ChunkSection::getBlockLight);
+        Pair<BitSet, PacketBuilder> skyLight = writeLightToPacket(ChunkSection::readSkyLight);
+        Pair<BitSet, PacketBuilder> blockLight = writeLightToPacket(ChunkSection::readBlockLight);
 
         packet.writeBitSet(skyLight.getKey());
         packet.writeBitSet(blockLight.getKey());
@@ -128,10 +128,10 @@ public class Chunk_1_17 extends Chunk_1_16 {
         packet.writeBitSet(new BitSet());
 
         packet.writeVarInt(skyLight.getKey().cardinality());
-        packet.writeByteArray(skyLight.getValue().toArray());
+        packet.writeByteArray(skyLight.getValue());
 
         packet.writeVarInt(blockLight.getKey().cardinality());
-        packet.writeByteArray(blockLight.getValue().toArray());
+        packet.writeByteArray(blockLight.getValue());
 
         return packet;
     }
@@ -152,13 +152,13 @@ public class Chunk_1_17 extends Chunk_1_16 {
             throw new InputMismatchException("Number of provided skylight maps does not match provided mask: " + skyLightMask + " != " + numSkyLight);
         }
 
-        parseLightArray(skyLightMask, emptySkyLightMask, provider, ChunkSection::setSkyLight, ChunkSection::getSkyLight);
+        parseLightArray(skyLightMask, emptySkyLightMask, provider, ChunkSection::setSkyLight);
 
         int numBlockLight = provider.readVarInt();
         if (blockLightMask.cardinality() != numBlockLight) {
             throw new InputMismatchException("Number of provided blocklight maps does not match provided mask: " + blockLightMask + " != " + numBlockLight);
         }
-        parseLightArray(blockLightMask, emptyBlockLightMask, provider, ChunkSection::setBlockLight, ChunkSection::getBlockLight);
+        parseLightArray(blockLightMask, emptyBlockLightMask, provider, ChunkSection::setBlockLight);
     }
 
 
@@ -2,49 +2,134 @@ package game.data.chunk.version.encoder;
 
 import game.data.chunk.Chunk;
 
+import java.util.Arrays;
+
+/**
+ * Reads and writes palette indices in the blocks array of a section. Before 1.16, indices are packed tightly so that a
+ * single index may span two longs. The encoding is done by static functions, so that encoders hold no state and can be
+ * used by any number of threads at once. The instance methods pick the right layout for the section's version.
+ */
 public class BlockLocationEncoder {
-    int individualValueMask;
-    int startLong;
-    int startOffset;
-    int endLong;
+    public static final int BLOCKS_PER_SECTION = Chunk.SECTION_WIDTH * Chunk.SECTION_WIDTH * Chunk.SECTION_HEIGHT;
 
     public BlockLocationEncoder() {
     }
 
-    public int fetch(long[] blocks) {
-        int data;
-        if (startLong == endLong) {
-            data = (int) (blocks[startLong] >>> startOffset);
-        } else {
+    public static int blockNumber(int x, int y, int z) {
+        return (((y * Chunk.SECTION_HEIGHT) + z) * Chunk.SECTION_WIDTH) + x;
+    }
+
+    /**
+     * The number of longs needed to store the indices of a whole section.
+     */
+    public static int requiredLongs(int bitsPerBlock) {
+        return (BLOCKS_PER_SECTION * bitsPerBlock + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Read the palette index of the given block.
+     */
+    public static int decode(long[] blocks, int blockNumber, int bitsPerBlock) {
+        int individualValueMask = (1 << bitsPerBlock) - 1;
+        int startBit = blockNumber * bitsPerBlock;
+        int startLong = startBit >>> 6;
+        int startOffset = startBit & 63;
+
+        long data = blocks[startLong] >>> startOffset;
+        if (startOffset + bitsPerBlock > 64) {
+            data |= blocks[startLong + 1] << (64 - startOffset);
+        }
+        return (int) data & individualValueMask;
+    }
+
+    /**
+     * Set the palette index of the given block.
+     */
+    public static void encode(long[] blocks, int blockNumber, int bitsPerBlock, int index) {
+        long individualValueMask = (1L << bitsPerBlock) - 1;
+        long data = index & individualValueMask;
+        int startBit = blockNumber * bitsPerBlock;
+        int startLong = startBit >>> 6;
+        int startOffset = startBit & 63;
+
+        // first set all relevant bits to 0, then use or to put the new bits in place
+        blocks[startLong] = blocks[startLong] & ~(individualValueMask << startOffset) | (data << startOffset);
+
+        if (startOffset + bitsPerBlock > 64) {
             int endOffset = 64 - startOffset;
-            data = (int) (blocks[startLong] >>> startOffset | blocks[endLong] << endOffset);
+            blocks[startLong + 1] = blocks[startLong + 1] & ~(individualValueMask >>> endOffset) | (data >>> endOffset);
         }
-        data &= individualValueMask;
+    }
 
-        return data;
+    /**
+     * Read the palette indices of all blocks in the section, in block number order. Indices are stored as unsigned
+     * shorts.
+     */
+    public static void decodeAll(long[] blocks, int bitsPerBlock, short[] out) {
+        if (IndexPacking.unpack(blocks, bitsPerBlock, false, out)) {
+            return;
+        }
+
+        long individualValueMask = (1L << bitsPerBlock) - 1;
+        int bit = 0;
+        for (int i = 0; i < BLOCKS_PER_SECTION; i++) {
+            int startLong = bit >>> 6;
+            int startOffset = bit & 63;
+
+            long data = blocks[startLong] >>> startOffset;
+            if (startOffset + bitsPerBlock > 64) {
+                data |= blocks[startLong + 1] << (64 - startOffset);
+            }
+            out[i] = (short) (data & individualValueMask);
+
+            bit += bitsPerBlock;
+        }
     }
 
-    public void write(long[] blocks, int newIndex) {
-        long data = newIndex & individualValueMask;
+    /**
+     * Write the palette indices of all blocks in the section, in block number order. The blocks array is overwritten.
+     */
+    public static void encodeAll(short[] indices, int bitsPerBlock, long[] blocks) {
+        if (IndexPacking.pack(indices, bitsPerBlock, false, blocks)) {
+            return;
+        }
 
-        // first set all relevant bits to 0, then use or to put the new bits in place
-        blocks[startLong] &= ~((long) individualValueMask << startOffset);
-        blocks[startLong] |= (data << startOffset);
+        Arrays.fill(blocks, 0);
+        int bit = 0;
+        for (int i = 0; i < BLOCKS_PER_SECTION; i++) {
+            long data = Short.toUnsignedLong(indices[i]);
+            int startLong = bit >>> 6;
+            int startOffset = bit & 63;
+
+            blocks[startLong] |= data << startOffset;
+            if (startOffset + bitsPerBlock > 64) {
+                blocks[startLong + 1] |= data >>> (64 - startOffset);
+            }
 
-        if (startLong != endLong) {
-            blocks[endLong] &= ~(individualValueMask >> (64 - startOffset));
-            blocks[endLong] |= (data >> (64 - startOffset));
+            bit += bitsPerBlock;
         }
     }
 
-    public BlockLocationEncoder setTo(int x, int y, int z, int bitsPerBlock) {
-        this.individualValueMask = (1 << bitsPerBlock) - 1;
+    public int fetch(long[] blocks, int blockNumber, int bitsPerBlock) {
+        return decode(blocks, blockNumber, bitsPerBlock);
+    }
+
+    /**
+     * @return true if the blocks array is long enough to hold every index of a section with the given bits per block
+     */
+    public boolean fits(long[] blocks, int bitsPerBlock) {
+        return blocks.length >= requiredLongs(bitsPerBlock);
+    }
 
-        int blockNumber = (((y * Chunk.SECTION_HEIGHT) + z) * Chunk.SECTION_WIDTH) + x;
-        this.startLong = (blockNumber * bitsPerBlock) / 64;
-        this.startOffset = (blockNumber * bitsPerBlock) % 64;
-        this.endLong = ((blockNumber + 1) * bitsPerBlock - 1) / 64;
+    public void write(long[] blocks, int blockNumber, int bitsPerBlock, int index) {
+        encode(blocks, blockNumber, bitsPerBlock, index);
+    }
+
+    public void fetchAll(long[] blocks, int bitsPerBlock, short[] out) {
+        decodeAll(blocks, bitsPerBlock, out);
+    }
 
-        return this;
+    public void writeAll(short[] indices, int bitsPerBlock, long[] blocks) {
+        encodeAll(indices, bitsPerBlock, blocks);
     }
 }
@@ -1,6 +1,6 @@
 package game.data.chunk.version.encoder;
 
-import game.data.chunk.Chunk;
+import java.util.Arrays;
 
 /**
  * 1.16 needs a a slightly different getPaletteIndex method. Instead of a blockstate now overlapping multiple longs,
@@ -8,43 +8,106 @@ import game.data.chunk.Chunk;
  * actually makes the method a little bit simpler.
  */
 public class BlockLocationEncoder_1_16 extends BlockLocationEncoder {
-    int longIndex;
-
     public BlockLocationEncoder_1_16() {
-        this.startLong = -1;
-        this.endLong = -1;
     }
 
-    public int fetch(long[] blocks) {
-        int data = (int) (blocks[longIndex] >>> startOffset);
-        data &= individualValueMask;
+    /**
+     * The number of longs needed to store the indices of a whole section.
+     */
+    public static int requiredLongs(int bitsPerBlock) {
+        int blocksPerLong = 64 / bitsPerBlock;
+        return (BLOCKS_PER_SECTION + blocksPerLong - 1) / blocksPerLong;
+    }
+
+    /**
+     * Read the palette index of the given block.
+     */
+    public static int decode(long[] blocks, int blockNumber, int bitsPerBlock) {
+        int blocksPerLong = 64 / bitsPerBlock;
+        int startOffset = (blockNumber % blocksPerLong) * bitsPerBlock;
 
-        return data;
+        return (int) (blocks[blockNumber / blocksPerLong] >>> startOffset) & ((1 << bitsPerBlock) - 1);
     }
 
-    public void write(long[] blocks, int newIndex) {
-        long data = newIndex & individualValueMask;
+    /**
+     * Set the palette index of the given block.
+     */
+    public static void encode(long[] blocks, int blockNumber, int bitsPerBlock, int index) {
+        long individualValueMask = (1L << bitsPerBlock) - 1;
+        int blocksPerLong = 64 / bitsPerBlock;
+        int longIndex = blockNumber / blocksPerLong;
+        int startOffset = (blockNumber % blocksPerLong) * bitsPerBlock;
 
         // first set all relevant bits to 0, then use or to put the new bits in place
-        blocks[longIndex] &= ~((long) individualValueMask << startOffset);
-        blocks[longIndex] |= (data << startOffset);
+        long data = index & individualValueMask;
+        blocks[longIndex] = blocks[longIndex] & ~(individualValueMask << startOffset) | (data << startOffset);
     }
 
-    public BlockLocationEncoder setTo(int x, int y, int z, int bitsPerBlock) {
-        this.individualValueMask = (1 << bitsPerBlock) - 1;
+    /**
+     * Read the palette indices of all blocks in the section, in block number order. Indices are stored as unsigned
+     * shorts.
+     */
+    public static void decodeAll(long[] blocks, int bitsPerBlock, short[] out) {
+        if (IndexPacking.unpack(blocks, bitsPerBlock, true, out)) {
+            return;
+        }
+
+        long individualValueMask = (1L << bitsPerBlock) - 1;
+        int blocksPerLong = 64 / bitsPerBlock;
+
+        int i = 0;
+        for (int longIndex = 0; i < BLOCKS_PER_SECTION; longIndex++) {
+            long data = blocks[longIndex];
+            for (int j = 0; j < blocksPerLong && i < BLOCKS_PER_SECTION; j++) {
+                out[i++] = (short) (data & individualValueMask);
+                data >>>= bitsPerBlock;
+            }
+        }
+    }
 
-        int blockNumber = (((y * Chunk.SECTION_HEIGHT) + z) * Chunk.SECTION_WIDTH) + x;
+    /**
+     * Write the palette indices of all blocks in the section, in block number order. The blocks array is overwritten.
+     */
+    public static void encodeAll(short[] indices, int bitsPerBlock, long[] blocks) {
+        if (IndexPacking.pack(indices, bitsPerBlock, true, blocks)) {
+            return;
+        }
 
         int blocksPerLong = 64 / bitsPerBlock;
-        this.longIndex = blockNumber / blocksPerLong;
-        int indexInLong = blockNumber % blocksPerLong;
-        this.startOffset = indexInLong * bitsPerBlock;
 
-        if (longIndex < 0) {
-            System.out.println("INVALID LONG INDEX: ");
-            System.out.println("\t" + x +", " + y + ", " + z + " :: " + bitsPerBlock);
+        Arrays.fill(blocks, 0);
+        int i = 0;
+        for (int longIndex = 0; i < BLOCKS_PER_SECTION; longIndex++) {
+            long data = 0;
+            for (int j = 0; j < blocksPerLong && i < BLOCKS_PER_SECTION; j++) {
+                data |= Short.toUnsignedLong(indices[i++]) << (j * bitsPerBlock);
+            }
+            blocks[longIndex] = data;
         }
+    }
+
+    @Override
+    public int fetch(long[] blocks, int blockNumber, int bitsPerBlock) {
+        return decode(blocks, blockNumber, bitsPerBlock);
+    }
+
+    @Override
+    public boolean fits(long[] blocks, int bitsPerBlock) {
+        return blocks.length >= requiredLongs(bitsPerBlock);
+    }
+
+    @Override
+    public void write(long[] blocks, int blockNumber, int bitsPerBlock, int index) {
+        encode(blocks, blockNumber, bitsPerBlock, index);
+    }
+
+    @Override
+    public void fetchAll(long[] blocks, int bitsPerBlock, short[] out) {
+        decodeAll(blocks, bitsPerBlock, out);
+    }
 
-        return this;
+    @Override
+    public void writeAll(short[] indices, int bitsPerBlock, long[] blocks) {
+        encodeAll(indices, bitsPerBlock, blocks);
     }
 }
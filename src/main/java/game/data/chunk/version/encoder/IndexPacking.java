@@ -0,0 +1,52 @@
+package game.data.chunk.version.encoder;
+
+/**
+ * Bulk packing and unpacking of palette indices. If the vectorised kernel was compiled (the vector Maven profile) and
+ * the jdk.incubator.vector module was added when starting the JVM (--add-modules jdk.incubator.vector), the common
+ * widths are handled by the kernel. In all other cases the methods return false and the encoders fall back to their
+ * scalar loops.
+ */
+final class IndexPacking {
+    private static final Kernel KERNEL = loadKernel();
+
+    private IndexPacking() { }
+
+    /**
+     * Implemented by VectorIndexPacking, which is loaded by name as it is not part of the default build.
+     */
+    interface Kernel {
+        boolean unpack(long[] blocks, int bitsPerBlock, boolean padded, short[] out);
+
+        boolean pack(short[] indices, int bitsPerBlock, boolean padded, long[] blocks);
+    }
+
+    private static Kernel loadKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+
+        try {
+            String name = IndexPacking.class.getPackageName() + ".VectorIndexPacking";
+            return (Kernel) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            // built without the vector profile
+            return null;
+        }
+    }
+
+    /**
+     * @param padded true if indices do not span multiple longs (1.16+)
+     * @return true if the indices were unpacked into out
+     */
+    static boolean unpack(long[] blocks, int bitsPerBlock, boolean padded, short[] out) {
+        return KERNEL != null && KERNEL.unpack(blocks, bitsPerBlock, padded, out);
+    }
+
+    /**
+     * @param padded true if indices do not span multiple longs (1.16+)
+     * @return true if the indices were packed into blocks, overwriting its contents
+     */
+    static boolean pack(short[] indices, int bitsPerBlock, boolean padded, long[] blocks) {
+        return KERNEL != null && KERNEL.pack(indices, bitsPerBlock, padded, blocks);
+    }
+}
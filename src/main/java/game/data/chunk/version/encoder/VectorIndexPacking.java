@@ -0,0 +1,312 @@
+package game.data.chunk.version.encoder;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Vectorised unpacking and packing of palette indices, for the widths where indices line up with the lanes of a
+ * vector. With 4, 8 and 16 bits per block the packed and padded layouts are identical, so both are supported. With
+ * 13-15 bits (the direct palette) there are 4 indices per long in the padded layout, which are moved to 16-bit lanes.
+ * With 5-7 bits, groups of 4 indices are split into 16-bit lanes, and the groups are moved in and out of the blocks
+ * array one at a time.
+ * <p>
+ * This class is only compiled with the vector Maven profile, and only loaded if the jdk.incubator.vector module is
+ * present, see IndexPacking.
+ */
+final class VectorIndexPacking implements IndexPacking.Kernel {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    private static final int BLOCKS = BlockLocationEncoder.BLOCKS_PER_SECTION;
+    private static final int GROUPS = BLOCKS / 4;
+
+    VectorIndexPacking() { }
+
+    @Override
+    public boolean unpack(long[] blocks, int bitsPerBlock, boolean padded, short[] out) {
+        if (!isSupported(bitsPerBlock, padded) || blocks.length < requiredLongs(bitsPerBlock, padded)) {
+            return false;
+        }
+
+        switch (bitsPerBlock) {
+            case 4: unpack4(blocks, out); break;
+            case 5: case 6: case 7: unpackGroups(blocks, bitsPerBlock, padded, out); break;
+            case 8: unpack8(blocks, out); break;
+            case 16: unpack16(blocks, out); break;
+            default: unpackQuarters(blocks, bitsPerBlock, out);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pack(short[] indices, int bitsPerBlock, boolean padded, long[] blocks) {
+        if (!isSupported(bitsPerBlock, padded) || blocks.length < requiredLongs(bitsPerBlock, padded)) {
+            return false;
+        }
+
+        switch (bitsPerBlock) {
+            case 4: pack4(indices, blocks); break;
+            case 5: case 6: case 7: packGroups(indices, bitsPerBlock, padded, blocks); break;
+            case 8: pack8(indices, blocks); break;
+            case 16: pack16(indices, blocks); break;
+            default: packQuarters(indices, bitsPerBlock, blocks);
+        }
+        return true;
+    }
+
+    private static boolean isSupported(int bitsPerBlock, boolean padded) {
+        if (bitsPerBlock >= 4 && bitsPerBlock <= 8 || bitsPerBlock == 16) {
+            return true;
+        }
+        return padded && bitsPerBlock >= 13 && bitsPerBlock < 16;
+    }
+
+    private static int requiredLongs(int bitsPerBlock, boolean padded) {
+        return padded ? BlockLocationEncoder_1_16.requiredLongs(bitsPerBlock) : BlockLocationEncoder.requiredLongs(bitsPerBlock);
+    }
+
+    /**
+     * Each byte holds two indices, the first in the low nibble. The nibbles are spread out to one per byte, which
+     * are then widened to shorts.
+     */
+    private static void unpack4(long[] blocks, short[] out) {
+        int bytes = BYTES.length();
+        int shorts = SHORTS.length();
+        for (int i = 0, o = 0; i < BLOCKS / 16; i += LONGS.length()) {
+            ByteVector packed = LongVector.fromArray(LONGS, blocks, i).reinterpretAsBytes();
+            for (int part = 0; part < 2; part++, o += bytes) {
+                ShortVector b = ((ShortVector) packed.convertShape(VectorOperators.B2S, SHORTS, part)).and((short) 0xFF);
+                ShortVector nibbles = b.and((short) 0x0F).or(b.lanewise(VectorOperators.LSHL, 4).and((short) 0x0F00));
+
+                ByteVector spread = nibbles.reinterpretAsBytes();
+                ((ShortVector) spread.convertShape(VectorOperators.B2S, SHORTS, 0)).intoArray(out, o);
+                ((ShortVector) spread.convertShape(VectorOperators.B2S, SHORTS, 1)).intoArray(out, o + shorts);
+            }
+        }
+    }
+
+    private static void unpack8(long[] blocks, short[] out) {
+        int shorts = SHORTS.length();
+        for (int i = 0, o = 0; i < BLOCKS / 8; i += LONGS.length()) {
+            ByteVector packed = LongVector.fromArray(LONGS, blocks, i).reinterpretAsBytes();
+            for (int part = 0; part < 2; part++, o += shorts) {
+                ((ShortVector) packed.convertShape(VectorOperators.B2S, SHORTS, part)).and((short) 0xFF).intoArray(out, o);
+            }
+        }
+    }
+
+    private static void unpack16(long[] blocks, short[] out) {
+        for (int i = 0; i < BLOCKS / 4; i += LONGS.length()) {
+            LongVector.fromArray(LONGS, blocks, i).reinterpretAsShorts().intoArray(out, i * 4);
+        }
+    }
+
+    /**
+     * Move the 4 indices in each long to the 4 16-bit parts of the long, after which they can be stored as shorts.
+     */
+    private static void unpackQuarters(long[] blocks, int bitsPerBlock, short[] out) {
+        long mask = (1L << bitsPerBlock) - 1;
+        for (int i = 0; i < BLOCKS / 4; i += LONGS.length()) {
+            LongVector packed = LongVector.fromArray(LONGS, blocks, i);
+
+            LongVector spread = packed.and(mask);
+            for (int j = 1; j < 4; j++) {
+                LongVector index = packed.lanewise(VectorOperators.LSHR, j * bitsPerBlock).and(mask);
+                spread = spread.or(index.lanewise(VectorOperators.LSHL, j * 16));
+            }
+            spread.reinterpretAsShorts().intoArray(out, i * 4);
+        }
+    }
+
+    /**
+     * Groups of 4 indices are read from the blocks one group at a time, and then split into pairs in the 32-bit halves
+     * of each long, and into single indices in the 16-bit halves of each pair.
+     */
+    private static void unpackGroups(long[] blocks, int bitsPerBlock, boolean padded, short[] out) {
+        long[] groups = new long[GROUPS];
+        if (padded) {
+            readPaddedGroups(blocks, bitsPerBlock, groups);
+        } else {
+            readGroups(blocks, bitsPerBlock, groups);
+        }
+
+        int pairBits = 2 * bitsPerBlock;
+        long pairMask = (1L << pairBits) - 1;
+        int mask = (1 << bitsPerBlock) - 1;
+        for (int i = 0; i < GROUPS; i += LONGS.length()) {
+            LongVector group = LongVector.fromArray(LONGS, groups, i);
+            IntVector pairs = group.and(pairMask)
+                    .or(group.lanewise(VectorOperators.LSHR, pairBits).lanewise(VectorOperators.LSHL, 32))
+                    .reinterpretAsInts();
+            pairs.and(mask)
+                    .or(pairs.lanewise(VectorOperators.LSHR, bitsPerBlock).lanewise(VectorOperators.LSHL, 16))
+                    .reinterpretAsShorts()
+                    .intoArray(out, i * 4);
+        }
+    }
+
+    /**
+     * Reverse of unpack4. Pairs of indices are combined into one byte per int lane, and the resulting bytes of four
+     * vectors are merged into one.
+     */
+    private static void pack4(short[] indices, long[] blocks) {
+        int shorts = SHORTS.length();
+        for (int i = 0, o = 0; i < BLOCKS / 16; i += LONGS.length()) {
+            ByteVector packed = ByteVector.zero(BYTES);
+            for (int part = 0; part < 4; part++, o += shorts) {
+                IntVector pairs = ShortVector.fromArray(SHORTS, indices, o).reinterpretAsInts();
+                IntVector combined = pairs.and(0x0F).or(pairs.lanewise(VectorOperators.LSHR, 12).and(0xF0));
+
+                packed = packed.or((ByteVector) combined.convertShape(VectorOperators.I2B, BYTES, -part));
+            }
+            packed.reinterpretAsLongs().intoArray(blocks, i);
+        }
+    }
+
+    private static void pack8(short[] indices, long[] blocks) {
+        int shorts = SHORTS.length();
+        for (int i = 0, o = 0; i < BLOCKS / 8; i += LONGS.length(), o += 2 * shorts) {
+            ByteVector low = (ByteVector) ShortVector.fromArray(SHORTS, indices, o)
+                    .convertShape(VectorOperators.S2B, BYTES, 0);
+            ByteVector high = (ByteVector) ShortVector.fromArray(SHORTS, indices, o + shorts)
+                    .convertShape(VectorOperators.S2B, BYTES, -1);
+
+            low.or(high).reinterpretAsLongs().intoArray(blocks, i);
+        }
+    }
+
+    private static void pack16(short[] indices, long[] blocks) {
+        for (int i = 0; i < BLOCKS / 4; i += LONGS.length()) {
+            ShortVector.fromArray(SHORTS, indices, i * 4).reinterpretAsLongs().intoArray(blocks, i);
+        }
+    }
+
+    /**
+     * Reverse of unpackGroups. Pairs of indices are joined in each 32-bit lane, and pairs of pairs in each 64-bit lane,
+     * after which the groups are written to the blocks one at a time.
+     */
+    private static void packGroups(short[] indices, int bitsPerBlock, boolean padded, long[] blocks) {
+        int mask = (1 << bitsPerBlock) - 1;
+        int pairBits = 2 * bitsPerBlock;
+        long pairMask = (1L << pairBits) - 1;
+        long[] groups = new long[GROUPS];
+        for (int i = 0; i < GROUPS; i += LONGS.length()) {
+            IntVector pairs = ShortVector.fromArray(SHORTS, indices, i * 4).reinterpretAsInts();
+            LongVector group = pairs.and(mask)
+                    .or(pairs.lanewise(VectorOperators.LSHR, 16).and(mask).lanewise(VectorOperators.LSHL, bitsPerBlock))
+                    .reinterpretAsLongs();
+            group.and(pairMask)
+                    .or(group.lanewise(VectorOperators.LSHR, 32).and(pairMask).lanewise(VectorOperators.LSHL, pairBits))
+                    .intoArray(groups, i);
+        }
+
+        Arrays.fill(blocks, 0);
+        if (padded) {
+            writePaddedGroups(groups, bitsPerBlock, blocks);
+        } else {
+            writeGroups(groups, bitsPerBlock, blocks);
+        }
+    }
+
+    /**
+     * Read groups of 4 indices from the packed layout, where a group may span two longs.
+     */
+    private static void readGroups(long[] blocks, int bitsPerBlock, long[] groups) {
+        int groupBits = 4 * bitsPerBlock;
+        long groupMask = (1L << groupBits) - 1;
+        for (int i = 0, bit = 0; i < GROUPS; i++, bit += groupBits) {
+            int startLong = bit >>> 6;
+            int startOffset = bit & 63;
+
+            long data = blocks[startLong] >>> startOffset;
+            if (startOffset + groupBits > 64) {
+                data |= blocks[startLong + 1] << (64 - startOffset);
+            }
+            groups[i] = data & groupMask;
+        }
+    }
+
+    /**
+     * Read groups of 4 indices from the padded layout. If a group does not fit in the rest of a long, its remaining
+     * indices are at the start of the next long, after the unused bits.
+     */
+    private static void readPaddedGroups(long[] blocks, int bitsPerBlock, long[] groups) {
+        int blocksPerLong = 64 / bitsPerBlock;
+        long groupMask = (1L << (4 * bitsPerBlock)) - 1;
+        for (int i = 0, longIndex = 0, j = 0; i < GROUPS; i++) {
+            int left = blocksPerLong - j;
+            long data = blocks[longIndex] >>> (j * bitsPerBlock);
+            if (left > 4) {
+                j += 4;
+            } else {
+                longIndex++;
+                if (left < 4) {
+                    int leftBits = left * bitsPerBlock;
+                    data = data & ((1L << leftBits) - 1) | blocks[longIndex] << leftBits;
+                }
+                j = 4 - left;
+            }
+            groups[i] = data & groupMask;
+        }
+    }
+
+    /**
+     * Reverse of readGroups. The blocks must be cleared first.
+     */
+    private static void writeGroups(long[] groups, int bitsPerBlock, long[] blocks) {
+        int groupBits = 4 * bitsPerBlock;
+        for (int i = 0, bit = 0; i < GROUPS; i++, bit += groupBits) {
+            int startLong = bit >>> 6;
+            int startOffset = bit & 63;
+
+            blocks[startLong] |= groups[i] << startOffset;
+            if (startOffset + groupBits > 64) {
+                blocks[startLong + 1] |= groups[i] >>> (64 - startOffset);
+            }
+        }
+    }
+
+    /**
+     * Reverse of readPaddedGroups. The blocks must be cleared first.
+     */
+    private static void writePaddedGroups(long[] groups, int bitsPerBlock, long[] blocks) {
+        int blocksPerLong = 64 / bitsPerBlock;
+        for (int i = 0, longIndex = 0, j = 0; i < GROUPS; i++) {
+            int left = blocksPerLong - j;
+            long group = groups[i];
+            if (left > 4) {
+                blocks[longIndex] |= group << (j * bitsPerBlock);
+                j += 4;
+            } else {
+                int leftBits = left * bitsPerBlock;
+                blocks[longIndex] |= (group & ((1L << leftBits) - 1)) << (j * bitsPerBlock);
+                longIndex++;
+                if (left < 4) {
+                    blocks[longIndex] |= group >>> leftBits;
+                }
+                j = 4 - left;
+            }
+        }
+    }
+
+    private static void packQuarters(short[] indices, int bitsPerBlock, long[] blocks) {
+        long mask = (1L << bitsPerBlock) - 1;
+        for (int i = 0; i < BLOCKS / 4; i += LONGS.length()) {
+            LongVector spread = ShortVector.fromArray(SHORTS, indices, i * 4).reinterpretAsLongs();
+
+            LongVector packed = spread.and(mask);
+            for (int j = 1; j < 4; j++) {
+                LongVector index = spread.lanewise(VectorOperators.LSHR, j * 16).and(mask);
+                packed = packed.or(index.lanewise(VectorOperators.LSHL, j * bitsPerBlock));
+            }
+            packed.intoArray(blocks, i);
+        }
+    }
+}
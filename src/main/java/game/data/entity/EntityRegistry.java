@@ -37,7 +37,7 @@ public class EntityRegistry {
      * Add a new entity.
      */
     public void addEntity(DataTypeProvider provider, Function<DataTypeProvider, Entity> parser) {
-        this.executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             Entity ent = parser.apply(provider);
             if (ent == null) { return; }
             entities.put(ent.getId(), ent);
@@ -71,7 +71,7 @@ public class EntityRegistry {
     }
 
     public void addPlayer(DataTypeProvider provider) {
-        executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             int entId = provider.readVarInt();
             players.put(entId, PlayerEntity.parse(provider));
         }));
@@ -100,7 +100,7 @@ public class EntityRegistry {
 
 
     public void addMetadata(DataTypeProvider provider) {
-        this.executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             Entity ent = entities.get(provider.readVarInt());
 
             if (ent != null) {
@@ -110,7 +110,7 @@ public class EntityRegistry {
     }
 
     public void updatePositionRelative(DataTypeProvider provider) {
-        this.executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             IMovableEntity ent = getMovableEntity(provider.readVarInt());
 
             if (ent != null) {
@@ -120,7 +120,7 @@ public class EntityRegistry {
     }
 
     public void updatePositionAbsolute(DataTypeProvider provider) {
-        this.executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             IMovableEntity ent = getMovableEntity(provider.readVarInt());
 
             if (ent != null) {
@@ -155,7 +155,7 @@ public class EntityRegistry {
     }
 
     public void addEquipment(DataTypeProvider provider) {
-        this.executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             int id = provider.readVarInt();
             Entity ent = entities.get(id);
 
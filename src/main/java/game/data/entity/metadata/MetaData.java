@@ -1,12 +1,13 @@
 package game.data.entity.metadata;
 
 import config.Config;
-import config.Option;
 import config.Version;
+import config.VersionReporter;
 import packets.DataTypeProvider;
 import se.llbit.nbt.CompoundTag;
 
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public abstract class MetaData {
     private final static int TERMINATOR = 0xFF;
@@ -39,10 +40,7 @@ public abstract class MetaData {
      * @return the metadata matching the given version
      */
     public static MetaData getVersionedMetaData() {
-        return Config.versionReporter().select(MetaData.class,
-                Option.of(Version.V1_13, MetaData_1_13::new),
-                Option.of(Version.ANY, MetaData_1_12::new)
-        );
+        return Config.versionBinding().metaData.get();
 
 //        if (Config.getProtocolVersion() >= 341) {
 //            return new MetaData_1_13();
@@ -51,6 +49,16 @@ public abstract class MetaData {
 //        }
     }
 
+    /**
+     * Get the constructor for metadata of the given version, see VersionBinding.
+     */
+    public static Supplier<MetaData> factoryFor(VersionReporter version) {
+        if (version.is(Version.V1_13)) {
+            return MetaData_1_13::new;
+        }
+        return MetaData_1_12::new;
+    }
+
     public abstract Consumer<DataTypeProvider> getTypeHandler(int i);
     public abstract Consumer<DataTypeProvider> getIndexHandler(int i);
 }
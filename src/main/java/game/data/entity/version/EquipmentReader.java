@@ -1,19 +1,28 @@
 package game.data.entity.version;
 
 import config.Config;
-import config.Option;
 import config.Version;
+import config.VersionReporter;
 import game.data.container.Slot;
 import packets.DataTypeProvider;
 
+import java.util.function.Supplier;
+
 public abstract class EquipmentReader {
     public abstract Slot[] readSlots(Slot[] equipment, DataTypeProvider provider);
 
     public static EquipmentReader getVersioned() {
-        return Config.versionReporter().select(EquipmentReader.class,
-                Option.of(Version.V1_15, EquipmentReader_1_15::new),
-                Option.of(Version.ANY, EquipmentReader_1_13::new)
-        );
+        return Config.versionBinding().equipmentReader.get();
+    }
+
+    /**
+     * Get the constructor for equipment readers of the given version, see VersionBinding.
+     */
+    public static Supplier<EquipmentReader> factoryFor(VersionReporter version) {
+        if (version.is(Version.V1_15)) {
+            return EquipmentReader_1_15::new;
+        }
+        return EquipmentReader_1_13::new;
     }
 
 }
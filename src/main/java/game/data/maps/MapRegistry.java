@@ -91,7 +91,7 @@ public class MapRegistry {
      * Read map from network packet to class.
      */
     public void readMap(DataTypeProvider provider) {
-        executor.execute(() -> attempt(() -> {
+        provider.executeOn(executor, () -> attempt(() -> {
             int mapId = provider.readVarInt();
             this.updatedSince.add(mapId);
             if (mapId > maxMapId) {
@@ -1,8 +1,8 @@
 package game.data.maps;
 
 import config.Config;
-import config.Option;
 import config.Version;
+import config.VersionReporter;
 import game.data.WorldManager;
 import game.data.dimension.Dimension;
 import packets.DataTypeProvider;
@@ -10,6 +10,7 @@ import se.llbit.nbt.*;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.IntFunction;
 
 public abstract class PlayerMap {
     int id;
@@ -34,11 +35,21 @@ public abstract class PlayerMap {
     }
 
     public static PlayerMap getVersioned(int id) {
-        return Config.versionReporter().select(PlayerMap.class,
-                Option.of(Version.V1_17, () -> new PlayerMap_1_17(id)),
-                Option.of(Version.V1_14, () -> new PlayerMap_1_14(id)),
-                Option.of(Version.V1_12, () -> new PlayerMap_1_12(id))
-        );
+        return Config.versionBinding().map.apply(id);
+    }
+
+    /**
+     * Get the constructor for maps of the given version, see VersionBinding.
+     */
+    public static IntFunction<PlayerMap> factoryFor(VersionReporter version) {
+        if (version.is(Version.V1_17)) {
+            return PlayerMap_1_17::new;
+        } else if (version.is(Version.V1_14)) {
+            return PlayerMap_1_14::new;
+        } else if (version.is(Version.V1_12)) {
+            return PlayerMap_1_12::new;
+        }
+        return id -> null;
     }
 
     public SpecificTag toNbt() {
@@ -58,7 +58,7 @@ public class Region {
             try {
                 ChunkBinary cb = file.getChunkBinary(coordinate);
                 if (cb != null) {
-                    chunk.parse(cb.getNbt());
+                    chunk.parse(cb.getNbt(Chunk.NBT_PATHS));
                 }
             } catch (Exception ex) {
                 // if we can't read in the current chunk, that's fine, just continue.
@@ -1,50 +1,78 @@
 package packets;
 
+import packets.lib.BufferPool;
+import packets.lib.PooledBuffer;
 import proxy.CompressionManager;
 
 import javax.naming.SizeLimitExceededException;
+import java.nio.ByteBuffer;
 
 public class DataProvider {
     private static final int MAX_SIZE = 2097152;
-    private DataReader reader;
-    private CompressionManager compressionManager;
+    private static final int MAX_VARINT_SIZE = 5;
 
-    public DataProvider(DataReader reader) {
-        this.reader = reader;
-    }
+    // the start of compressed packets is decompressed into this to read the packet ID, so it is reused for each packet
+    private static final ThreadLocal<ByteBuffer> packetIdBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_VARINT_SIZE));
+
+    private CompressionManager compressionManager;
 
     public void setCompressionManager(CompressionManager compressionManager) {
         this.compressionManager = compressionManager;
     }
 
+    /**
+     * Read the ID of the given packet without decompressing all of it. The buffer's position is not changed. Most
+     * packets are not handled by us, so this lets us skip decompressing them entirely.
+     * @param packet the packet contents, without the length prefix
+     * @return the packet ID
+     */
+    public int peekPacketId(ByteBuffer packet) throws SizeLimitExceededException {
+        ByteBuffer data = packet.duplicate();
+        if (compressionManager.isCompressionEnabled()) {
+            int uncompressedSize = DataReader.readVarInt(data);
+
+            if (uncompressedSize > MAX_SIZE) {
+                throw new SizeLimitExceededException("WARNING: discarding packet over maximum size (size: " + uncompressedSize + ")");
+            }
+
+            if (uncompressedSize != 0) {
+                ByteBuffer prefix = packetIdBuffers.get();
+                compressionManager.decompressPrefix(data, prefix);
+                return DataReader.readVarInt(prefix);
+            }
+        }
+        return DataReader.readVarInt(data);
+    }
+
     /**
      * Provides the object with all the bytes from the packet, allowing them to be read into the correct data types
      * easily. This method will also decompress the packet, as this is the first time we have the full packet
      * available, which is what we need for valid decompression.
-     * @param size the packet size
+     * @param packet the packet contents, without the length prefix. Only valid for the duration of this call.
      * @return the data parser for the decompressed packet
      */
-    public DataTypeProvider withSize(int size) throws SizeLimitExceededException {
-        byte[] compressed = reader.readByteArray(size);
-
-        byte[] fullPacket;
+    public DataTypeProvider withPacket(ByteBuffer packet) throws SizeLimitExceededException {
+        int uncompressedSize = 0;
         if (compressionManager.isCompressionEnabled()) {
-            final int[] compressionPos = {0};
-            int uncompressedSize = DataReader.readVarInt(
-                () -> compressionPos[0] < compressed.length,
-                () -> compressed[compressionPos[0]++]
-            );
+            uncompressedSize = DataReader.readVarInt(packet);
 
             // packets over this size will crash the game client, so it may help to reject them here
             if (uncompressedSize > MAX_SIZE) {
                 throw new SizeLimitExceededException("WARNING: discarding packet over maximum size (size: " + uncompressedSize + ")");
             }
+        }
+
+        // the data is copied (or decompressed) into a pooled buffer, which the packet handler releases when done
+        int size = uncompressedSize == 0 ? packet.remaining() : uncompressedSize;
+        PooledBuffer fullPacket = BufferPool.acquire(size);
+        ByteBuffer target = ByteBuffer.wrap(fullPacket.array(), 0, size);
 
-            fullPacket = compressionManager.decompressPacket(compressed, compressionPos[0], uncompressedSize);
+        if (uncompressedSize == 0) {
+            target.put(packet);
         } else {
-            fullPacket = compressed;
+            compressionManager.decompressPacket(packet, target);
         }
 
-        return DataTypeProvider.ofPacket(fullPacket);
+        return DataTypeProvider.ofPacket(fullPacket, size);
     }
 }
@@ -1,39 +1,50 @@
 package packets;
 
 import packets.handler.PacketHandler;
-import packets.lib.ByteQueue;
+import packets.lib.FrameBuffer;
 import proxy.ByteConsumer;
 import proxy.EncryptionManager;
+import proxy.PassthroughConsumer;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
-import java.util.function.UnaryOperator;
 
 /**
  * This class takes care of reading in bytes from the network steam and turning it into individual packets.
  */
 public class DataReader {
-    private static final int QUEUE_INIT_SIZE = 2 << 15 - 1;
-    private ByteQueue queue;
-    private ByteQueue currentPacket;
+    private static final int BUFFER_INIT_SIZE = 2 << 15 - 1;
+    private static final int INVALID_PACKET_ID = -1;
+    private FrameBuffer frames;
+    private FrameBuffer encryptedFrames;
+    private boolean mirrorEncrypted;
     private PacketHandler packetHandler;
+    private PacketPipeline pipeline;
 
     private final Supplier<Boolean> encryptionStatus;
-    private final UnaryOperator<byte[]> decrypt;
+    private final BiConsumer<ByteBuffer, ByteBuffer> decrypt;
     private final ByteConsumer transmit;
-
-    private VarIntResult varIntPacketSize;
-
+    private final Supplier<Boolean> passthroughStatus;
+    private final PassthroughConsumer passthrough;
+    private final Runnable skipped;
 
     /**
      * Initialise the reader. Gets a decryptor operator and transmitter method.
-     * @param decrypt  the decryptor operator
-     * @param transmit the transmit function
+     * @param decrypt     the decryptor operator
+     * @param transmit    the transmit function
+     * @param passthrough the transmit function for unchanged cipher text
+     * @param skipped     called when a packet is not forwarded
      */
-    private DataReader(Supplier<Boolean> encryptionStatus, UnaryOperator<byte[]> decrypt, ByteConsumer transmit) {
+    private DataReader(Supplier<Boolean> encryptionStatus, BiConsumer<ByteBuffer, ByteBuffer> decrypt, ByteConsumer transmit,
+                       Supplier<Boolean> passthroughStatus, PassthroughConsumer passthrough, Runnable skipped) {
         this.encryptionStatus = encryptionStatus;
         this.decrypt = decrypt;
         this.transmit = transmit;
+        this.passthroughStatus = passthroughStatus;
+        this.passthrough = passthrough;
+        this.skipped = skipped;
 
         reset();
     }
@@ -42,23 +53,33 @@ public class DataReader {
      * Reset the reader in case the connection was lost.
      */
     public void reset() {
-        queue = new ByteQueue(QUEUE_INIT_SIZE);
-        currentPacket = new ByteQueue(QUEUE_INIT_SIZE);
-        varIntPacketSize = new VarIntResult();
+        frames = new FrameBuffer(BUFFER_INIT_SIZE);
+        encryptedFrames = new FrameBuffer(BUFFER_INIT_SIZE);
+        mirrorEncrypted = false;
+
+        if (pipeline != null) {
+            pipeline.clear();
+        }
     }
 
     /**
      * Initialise a client-bound data reader.
      */
     public static DataReader clientBound(EncryptionManager manager) {
-        return new DataReader(manager::isEncryptionEnabled, manager::clientBoundDecrypt, manager::streamToClient);
+        return new DataReader(
+            manager::isEncryptionEnabled, manager::clientBoundDecrypt, manager::streamToClient,
+            manager::isClientBoundPassthrough, manager::forwardToClient, manager::skippedClientBound
+        );
     }
 
     /**
      * Initialise a server-bound data reader.
      */
     public static DataReader serverBound(EncryptionManager manager) {
-        return new DataReader(manager::isEncryptionEnabled, manager::serverBoundDecrypt, manager::streamToServer);
+        return new DataReader(
+            manager::isEncryptionEnabled, manager::serverBoundDecrypt, manager::streamToServer,
+            manager::isServerBoundPassthrough, manager::forwardToServer, manager::skippedServerBound
+        );
     }
 
     /**
@@ -72,6 +93,13 @@ public class DataReader {
         return res.getResult();
     }
 
+    /**
+     * Read a var int from the given buffer, advancing its position past the var int.
+     */
+    public static int readVarInt(ByteBuffer buffer) {
+        return readVarInt(buffer::hasRemaining, buffer::get);
+    }
+
     /**
      * Read a full or partial varInt from the given reader method. As the connection will sometimes give us partial
      * varInts (with the rest having not yet arrived) we need to make sure we can handle partial results without the
@@ -106,109 +134,143 @@ public class DataReader {
      * @param amount the number of bytes to read from the array
      */
     public void pushData(byte[] b, int amount) throws IOException {
-        if (amount == 0) { return; }
+        pushData(ByteBuffer.wrap(b, 0, amount));
+    }
+
+    /**
+     * Push data to this reader from a (direct) buffer, as given by the proxy's channels. All remaining bytes of the
+     * buffer are consumed.
+     * @param buffer the buffer containing the new data
+     */
+    public void pushData(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining()) { return; }
 
         if (encryptionStatus.get()) {
-            decryptPacket(b, amount);
+            decryptPacket(buffer);
         } else {
-            for (int i = 0; i < amount; i++) {
-                queue.insert(b[i]);
-            }
+            frames.put(buffer);
         }
         readPackets();
     }
 
     /**
-     * If the packet is encrypted, decrypt it. Adds the decrypted bytes to the regular queue.
-     * @param b      the encrypted bytes
-     * @param amount the number of bytes to read from the given array
+     * If the packet is encrypted, decrypt it. The bytes are decrypted straight into the frame buffer, so no intermediate
+     * arrays are needed. While the cipher text can
+     * be forwarded unchanged, it is also kept in a second buffer. As AES/CFB8 encrypts byte-by-byte, both buffers
+     * contain packets at the same offsets. We can only start mirroring when no partial packet is buffered, as the two
+     * buffers would otherwise not line up.
+     * @param buffer the encrypted bytes
      */
-    private void decryptPacket(byte[] b, int amount) {
-        byte[] encrypted = b;
-
-        if (b.length != amount) {
-            encrypted = new byte[amount];
-            System.arraycopy(b, 0, encrypted, 0, amount);
+    private void decryptPacket(ByteBuffer buffer) {
+        mirrorEncrypted = passthroughStatus.get() && (mirrorEncrypted || frames.size() == 0);
+        if (mirrorEncrypted) {
+            encryptedFrames.put(buffer.duplicate());
+        } else {
+            encryptedFrames.clear();
         }
 
-        byte[] decrypted = decrypt.apply(encrypted);
-
-        for (byte aDecrypted : decrypted) {
-            queue.insert(aDecrypted);
-        }
+        decrypt.accept(buffer, frames.reserve(buffer.remaining()));
     }
 
     /**
-     * Read packets from the byte queue. This method will first try to read a varInt indicating the upcoming packet's
-     * size. Then, when the varInt is complete (may take several data transmissions), it will check if there is enough
-     * bytes to complete the packet (this too may take several transmissions). After the packet is complete it will
-     * be passed to the packet builder which may decompress and read the data.
+     * Read packets from the frame buffer. A packet is only handled once its length prefix and all of its bytes have
+     * arrived (which may take several data transmissions). The packet is then passed to the packet handler as a slice
+     * of the buffer, which may decompress and read the data.
      * <p>
-     * If the packet builder returns true, this means we will forward the packet. If the builder returns false, we will
+     * If the packet handler returns true, this means we will forward the packet. If the handler returns false, we will
      * dump the packet and move on. This will happen for the encryption related packets as sending the real one to the
      * server will prevent us from getting the encryption keys.
+     * <p>
+     * Packets that the handler has no operator for are forwarded without being decompressed. If the packet handler
+     * allows it, packets that are never swallowed are forwarded first and then handled on the pipeline's thread, so
+     * that parsing does not delay delivery to the client.
      */
     private void readPackets() throws IOException {
-        int nextPacketSize;
-        while (hasNext() && readPacketSize().isComplete()) {
-            nextPacketSize = varIntPacketSize.getResult();
-
-            // if we have enough bytes to parse the packet
-            if (!hasBytes(nextPacketSize)) {
-                return;
-            }
-            // parse the packet (including decompression)
-            boolean forwardPacket = true;
-            try {
-                forwardPacket = getPacketHandler().handle(nextPacketSize);
-            } catch (Exception ex) {
-                ex.printStackTrace();
+        while (frames.nextFrame()) {
+            PacketHandler handler = getPacketHandler();
+            ByteBuffer packet = frames.payload();
+            int packetId = peekPacketId(handler, packet);
+
+            if (packetId != INVALID_PACKET_ID && !handler.isHandled(packetId)) {
+                forward(true);
+            } else if (packetId == INVALID_PACKET_ID || handler.isSynchronous(packetId)) {
+                forward(handleNow(handler, packet));
+            } else {
+                forward(true);
+                getPipeline().submit(handler, packet);
             }
 
-            // check if the the packet length was correct
-            int expectedLength = nextPacketSize + varIntPacketSize.numBytes();
-            if (currentPacket.size() != expectedLength) {
-                String msg = "Packet parsing may have been incorrect! Expected length: " + expectedLength + ". Used bytes: " + currentPacket.size();
-                new IllegalStateException(msg).printStackTrace(System.err);
-            }
+            frames.consumeFrame();
+        }
+    }
 
-            // forward the packet unless the packet builder decided swallowed it
-            if (forwardPacket) {
-                transmit.consume(currentPacket);
-            }
+    /**
+     * Parse the packet (including decompression) on the current thread. If there are still packets in the pipeline,
+     * those are handled first to preserve the order.
+     * @return true if the packet should be forwarded
+     */
+    private boolean handleNow(PacketHandler handler, ByteBuffer packet) throws IOException {
+        if (pipeline != null) {
+            pipeline.awaitIdle();
+        }
 
-            // clean up to prepare for next packet
-            currentPacket.clear();
-            varIntPacketSize.reset();
+        try {
+            return handler.handle(packet);
+        } catch (Exception ex) {
+            ex.printStackTrace();
         }
+        return true;
     }
 
     /**
-     * Check if we have more bytes in the queue right now.
+     * Read the packet ID. If this fails, the packet is handled as usual so that the handler can report the problem.
      */
-    private boolean hasNext() {
-        return !queue.isEmpty();
+    private int peekPacketId(PacketHandler handler, ByteBuffer packet) {
+        try {
+            return handler.peekPacketId(packet);
+        } catch (Exception ex) {
+            return INVALID_PACKET_ID;
+        }
     }
 
     /**
-     * Read the packet size. Will continue reading with a previous result if that was not yet complete.
+     * Forward the current packet, including its length prefix, unless the packet handler decided to swallow it.
      */
-    private VarIntResult readPacketSize() {
-        if (!varIntPacketSize.isComplete()) {
-            readVarInt(this::hasNext, this::readNext, varIntPacketSize);
+    private void forward(boolean forwardPacket) throws IOException {
+        if (mirrorEncrypted) {
+            forwardEncrypted(forwardPacket);
+        } else if (forwardPacket) {
+            transmit.consume(frames.frame());
         }
-        return varIntPacketSize;
+    }
+
+    private PacketPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new PacketPipeline("Packet Handler");
+        }
+        return pipeline;
     }
 
     /**
-     * Check if we have the given number of bytes. Used to check if the next package is complete.
-     * @param amount the number of bytes required
-     * @return true if we have sufficient bytes, otherwise false
+     * Forward the current packet using the original cipher text. If that is no longer possible because the stream was
+     * changed, fall back to forwarding the decrypted packet.
      */
-    private boolean hasBytes(int amount) {
-        return amount <= queue.size();
-    }
+    private void forwardEncrypted(boolean forwardPacket) throws IOException {
+        int size = frames.frameSize();
+        ByteBuffer encrypted = encryptedFrames.peek(size);
+
+        if (!forwardPacket) {
+            skipped.run();
+        } else if (!passthrough.forward(encrypted)) {
+            transmit.consume(frames.frame());
+        }
 
+        encryptedFrames.skip(size);
+        if (!passthroughStatus.get()) {
+            mirrorEncrypted = false;
+            encryptedFrames.clear();
+        }
+    }
 
     private PacketHandler getPacketHandler() {
         return packetHandler;
@@ -216,28 +278,7 @@ public class DataReader {
 
     public void setPacketHandler(PacketHandler packetHandler) {
         this.packetHandler = packetHandler;
-        packetHandler.setReader(new DataProvider(this));
-    }
-
-    /**
-     * Read a byte, also add it the current packet.
-     */
-    private byte readNext() {
-        currentPacket.insert(queue.peek());
-
-        return queue.remove();
-    }
-
-    /**
-     * Read an array of bytes from the queue. Used to get all the bytes for a packet.
-     * @param arrayLength the number of bytes to get
-     * @return the full array
-     */
-    byte[] readByteArray(int arrayLength) {
-        byte[] bytes = new byte[arrayLength];
-        for (int i = 0; i < arrayLength; i++) {
-            bytes[i] = readNext();
-        }
-        return bytes;
+        packetHandler.setReader(new DataProvider());
+        packetHandler.compileOperators();
     }
 }
@@ -1,50 +1,139 @@
 package packets;
 
 import config.Config;
-import config.Option;
 import config.Version;
+import config.VersionReporter;
 import game.data.coordinates.Coordinate3D;
 import game.data.container.Slot;
 import game.data.container.Slot_1_12;
 import game.data.coordinates.CoordinateDouble3D;
 import packets.version.DataTypeProvider_1_13;
+import packets.lib.PooledBuffer;
 import packets.version.DataTypeProvider_1_14;
-import se.llbit.nbt.NamedTag;
 import se.llbit.nbt.SpecificTag;
+import util.NbtReader;
 
-import java.io.DataInputStream;
-import java.io.InputStream;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 /**
  * Class to provide an interface between the raw byte data and the various data types. Most methods are
- * self-explanatory.
+ * self-explanatory. The data is read through a big-endian byte buffer, so primitives are decoded without copying, and
+ * providers for part of the data (see ofLength) share the same backing array.
+ * <p>
+ * If the data comes from the buffer pool, the provider holds a reference to it. Code that keeps using the provider
+ * after the packet has been handled (e.g. on another thread) needs to call retain() first, and release() when done.
  */
 public class DataTypeProvider {
     private static final int MAX_SHORT_VAL = 1 << 15;
-    private byte[] finalFullPacket;
-    private int pos;
+    private final ByteBuffer buffer;
+    private PooledBuffer pooled;
 
     public DataTypeProvider(byte[] finalFullPacket) {
-        this.finalFullPacket = finalFullPacket;
-        this.pos = 0;
+        this(ByteBuffer.wrap(finalFullPacket));
+    }
+
+    /**
+     * Read from the given heap buffer, starting at its current position. The buffer is used directly, not copied.
+     */
+    public DataTypeProvider(ByteBuffer buffer) {
+        this.buffer = buffer;
     }
 
     public static DataTypeProvider ofPacket(byte[] finalFullPacket) {
-        return Config.versionReporter().select(DataTypeProvider.class,
-                Option.of(Version.V1_14, () -> new DataTypeProvider_1_14(finalFullPacket)),
-                Option.of(Version.V1_13, () -> new DataTypeProvider_1_13(finalFullPacket)),
-                Option.of(Version.ANY, () -> new DataTypeProvider(finalFullPacket))
-        );
+        return ofPacket(ByteBuffer.wrap(finalFullPacket));
+    }
+
+    /**
+     * Get a provider for the first given number of bytes of a pooled buffer. The provider takes over the reference
+     * to the buffer, so it should be released once the packet has been handled.
+     */
+    public static DataTypeProvider ofPacket(PooledBuffer pooled, int length) {
+        DataTypeProvider provider = ofPacket(ByteBuffer.wrap(pooled.array(), 0, length));
+        provider.pooled = pooled;
+        return provider;
+    }
+
+    private static DataTypeProvider ofPacket(ByteBuffer buffer) {
+        return Config.versionBinding().provider.apply(buffer);
+    }
+
+    /**
+     * Get the constructor for providers of the given version, see VersionBinding.
+     */
+    public static Function<ByteBuffer, DataTypeProvider> factoryFor(VersionReporter version) {
+        if (version.is(Version.V1_14)) {
+            return DataTypeProvider_1_14::new;
+        } else if (version.is(Version.V1_13)) {
+            return DataTypeProvider_1_13::new;
+        }
+        return DataTypeProvider::new;
     }
 
     public DataTypeProvider ofLength(int length) {
-        return new DataTypeProvider(this.readByteArray(length));
+        return sharing(new DataTypeProvider(this.readSlice(length)));
+    }
+
+    /**
+     * Let a provider over part of this provider's data use the same reference to the pooled buffer, if there is one.
+     */
+    protected <T extends DataTypeProvider> T sharing(T provider) {
+        ((DataTypeProvider) provider).pooled = this.pooled;
+        return provider;
+    }
+
+    /**
+     * Keep the data alive until release() is called, for when the provider is used after the packet was handled.
+     */
+    public DataTypeProvider retain() {
+        if (pooled != null) {
+            pooled.retain();
+        }
+        return this;
+    }
+
+    /**
+     * Give up a reference to the data. After the last reference is released, the provider can no longer be read.
+     */
+    public void release() {
+        if (pooled != null) {
+            pooled.release();
+        }
+    }
+
+    /**
+     * Run a task that reads from this provider on the given executor, keeping the data alive until it has finished.
+     */
+    public void executeOn(Executor executor, Runnable task) {
+        retain();
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Get a buffer over the next given number of bytes, sharing this provider's data, and skip past them.
+     */
+    protected ByteBuffer readSlice(int length) {
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        skip(length);
+        return slice;
     }
 
     public long readVarLong() {
@@ -69,26 +158,20 @@ public class DataTypeProvider {
     }
 
     public boolean hasNext() {
-        return pos < finalFullPacket.length;
+        return buffer.hasRemaining();
     }
 
     public byte readNext() {
-        return finalFullPacket[pos++];
+        return buffer.get();
     }
 
     public int readInt() {
-        byte[] bytes = readByteArray(4);
-        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
-        buffer.put(bytes);
-        ((Buffer) buffer).flip();
         return buffer.getInt();
     }
 
     public byte[] readByteArray(int size) {
         byte[] res = new byte[size];
-
-        System.arraycopy(finalFullPacket, pos, res, 0, size);
-        pos += size;
+        buffer.get(res);
 
         return res;
     }
@@ -100,11 +183,10 @@ public class DataTypeProvider {
     public String readString() {
         int stringSize = readVarInt();
 
-        StringBuilder sb = new StringBuilder();
-        while (stringSize-- > 0) {
-            sb.appendCodePoint(readNext() & 0xFF);
-        }
-        return sb.toString();
+        // each byte is read as a single character
+        String res = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), stringSize, StandardCharsets.ISO_8859_1);
+        skip(stringSize);
+        return res;
     }
 
     public int readVarInt() {
@@ -112,9 +194,7 @@ public class DataTypeProvider {
     }
 
     public void skip(int amount) {
-        while (amount-- > 0) {
-            readNext();
-        }
+        buffer.position(buffer.position() + amount);
     }
 
     public int readShort() {
@@ -152,26 +232,20 @@ public class DataTypeProvider {
     }
 
     public long readLong() {
-        byte[] bytes = readByteArray(8);
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.put(bytes);
-        ((Buffer) buffer).flip();
         return buffer.getLong();
     }
 
     public long[] readLongArray(int size) {
         long[] res = new long[size];
-        for (int i = 0; i < size; i++) {
-            res[i] = readLong();
-        }
+        buffer.asLongBuffer().get(res);
+        skip(size * Long.BYTES);
         return res;
     }
 
     public int[] readIntArray(int size) {
         int[] res = new int[size];
-        for (int i = 0; i < size; i++) {
-            res[i] = readInt();
-        }
+        buffer.asIntBuffer().get(res);
+        skip(size * Integer.BYTES);
         return res;
     }
 
@@ -185,12 +259,7 @@ public class DataTypeProvider {
 
     public SpecificTag readNbtTag() {
         try {
-            return (SpecificTag) NamedTag.read(new DataInputStream(new InputStream() {
-                @Override
-                public int read() {
-                    return readNext() & 0xFF;
-                }
-            })).unpack();
+            return (SpecificTag) new NbtReader(buffer).readNamedTag().unpack();
         } catch (Exception ex) {
             ex.printStackTrace();
             return null;
@@ -198,18 +267,10 @@ public class DataTypeProvider {
     }
 
     public float readFloat() {
-        byte[] bytes = readByteArray(4);
-        ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES);
-        buffer.put(bytes);
-        ((Buffer) buffer).flip();
         return buffer.getFloat();
     }
 
     public double readDouble() {
-        byte[] bytes = readByteArray(8);
-        ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES);
-        buffer.put(bytes);
-        ((Buffer) buffer).flip();
         return buffer.getDouble();
     }
 
@@ -275,19 +336,25 @@ public class DataTypeProvider {
         return new CoordinateDouble3D(readDouble(), readDouble(), readDouble());
     }
 
+    /**
+     * Get a provider over the same data, starting from the beginning. The data itself is shared, not copied.
+     */
     public DataTypeProvider copy() {
-        return new DataTypeProvider(Arrays.copyOf(this.finalFullPacket, this.finalFullPacket.length));
+        return sharing(new DataTypeProvider(buffer.duplicate().position(0)));
     }
 
     public int remaining() {
-        return this.finalFullPacket.length - pos;
+        return buffer.remaining();
     }
 
     @Override
     public String toString() {
+        byte[] contents = new byte[buffer.limit()];
+        buffer.get(0, contents);
+
         return "DataTypeProvider{" +
-                "finalFullPacket=" + Arrays.toString(finalFullPacket) +
-                ", pos=" + pos +
+                "finalFullPacket=" + Arrays.toString(contents) +
+                ", pos=" + buffer.position() +
                 '}';
     }
 }
@@ -0,0 +1,134 @@
+package packets;
+
+import packets.handler.PacketHandler;
+import packets.lib.BufferPool;
+import packets.lib.PooledBuffer;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handles packets on a separate thread after they have been forwarded, so that parsing (in particular of chunks) does
+ * not delay delivery to the client. Packets are handled in the order they were received. The queue is bounded, so if
+ * the handler thread falls behind the proxy thread will wait for it rather than buffering without limit.
+ */
+public class PacketPipeline {
+    private static final int CAPACITY = 1024;
+
+    private final BlockingQueue<Runnable> queue;
+    private final AtomicInteger pending;
+
+    public PacketPipeline(String name) {
+        this.queue = new ArrayBlockingQueue<>(CAPACITY);
+        this.pending = new AtomicInteger();
+
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                queue.take().run();
+            } catch (InterruptedException ex) {
+                return;
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Queue the given packet to be handled. The packet is copied into a pooled buffer, as the given buffer is re-used
+     * once this method returns. The copy is released once the packet has been handled.
+     * @param handler the handler to handle the packet with
+     * @param packet  the packet, without its length prefix
+     */
+    public void submit(PacketHandler handler, ByteBuffer packet) throws InterruptedIOException {
+        int length = packet.remaining();
+        PooledBuffer copy = BufferPool.acquire(length);
+        packet.get(copy.array(), 0, length);
+
+        pending.incrementAndGet();
+        try {
+            put(new PacketTask(handler, copy, length));
+        } catch (InterruptedIOException ex) {
+            pending.decrementAndGet();
+            copy.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Wait until all packets that were queued so far have been handled.
+     */
+    public void awaitIdle() throws InterruptedIOException {
+        if (pending.get() == 0) {
+            return;
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        put(done::countDown);
+        await(done);
+    }
+
+    /**
+     * Discard all packets that have not yet been handled.
+     */
+    public void clear() {
+        List<Runnable> discarded = new ArrayList<>();
+        queue.drainTo(discarded);
+
+        for (Runnable task : discarded) {
+            if (task instanceof PacketTask) {
+                ((PacketTask) task).packet.release();
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private void put(Runnable task) throws InterruptedIOException {
+        try {
+            queue.put(task);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while queueing packet");
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Interrupted while waiting for packets to be handled");
+        }
+    }
+
+    private class PacketTask implements Runnable {
+        private final PacketHandler handler;
+        private final PooledBuffer packet;
+        private final int length;
+
+        PacketTask(PacketHandler handler, PooledBuffer packet, int length) {
+            this.handler = handler;
+            this.packet = packet;
+            this.length = length;
+        }
+
+        @Override
+        public void run() {
+            try {
+                handler.handle(ByteBuffer.wrap(packet.array(), 0, length));
+            } finally {
+                packet.release();
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package packets.builder;
 
 import packets.UUID;
-import packets.lib.ByteQueue;
 import proxy.CompressionManager;
 import se.llbit.nbt.SpecificTag;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,13 +47,20 @@ public class DebugPacketBuilder extends PacketBuilder {
     }
 
     @Override
-    public ByteQueue build() {
+    public void writeByteArray(PacketBuilder other) {
+        super.writeByteArray(other);
+
+        add("ByteArr[" + other.size() + "]");
+    }
+
+    @Override
+    public ByteBuffer build() {
         System.out.println("Packet[" +String.join(" ", parts) + "]");
         return super.build();
     }
 
     @Override
-    public ByteQueue build(CompressionManager compressionManager) {
+    public ByteBuffer build(CompressionManager compressionManager) {
         System.out.println("Packet[" +String.join(" ", parts) + "]");
         return super.build(compressionManager);
     }
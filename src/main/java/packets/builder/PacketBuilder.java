@@ -4,7 +4,6 @@ import config.Config;
 import game.protocol.Protocol;
 import packets.DataTypeProvider;
 import packets.UUID;
-import packets.lib.ByteQueue;
 import proxy.CompressionManager;
 import se.llbit.nbt.NamedTag;
 import se.llbit.nbt.SpecificTag;
@@ -12,25 +11,57 @@ import se.llbit.nbt.SpecificTag;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.BitSet;
 
+/**
+ * Builds packets in a growable byte buffer. The start of the buffer is kept free for the length prefix, so that the
+ * framed packet can be produced in place once the size is known, without moving the contents.
+ */
 public class PacketBuilder {
-    ByteQueue bytes;
+    private static final int MAX_VARINT_SIZE = 5;
+
+    // room for the packet length, plus the 0 byte that marks a packet as uncompressed when compression is enabled
+    private static final int PREFIX_SIZE = MAX_VARINT_SIZE + 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private ByteBuffer buffer;
 
     public PacketBuilder(int packetId) {
-        this.bytes = new ByteQueue();
+        this();
         writeVarInt(packetId);
     }
 
     public PacketBuilder() {
-        this.bytes = new ByteQueue();
+        this.buffer = ByteBuffer.allocate(PREFIX_SIZE + INITIAL_CAPACITY);
+        this.buffer.position(PREFIX_SIZE);
     }
 
     public byte[] toArray() {
-        return bytes.toArray();
+        return Arrays.copyOfRange(buffer.array(), PREFIX_SIZE, buffer.position());
+    }
+
+    /**
+     * Number of bytes written so far.
+     */
+    public int size() {
+        return buffer.position() - PREFIX_SIZE;
+    }
+
+    /**
+     * Make sure the given number of bytes can be written. The buffer at least doubles in size when it needs to grow,
+     * so large packets (like chunks) only cause a handful of copies.
+     */
+    private ByteBuffer ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            int capacity = Math.max(buffer.capacity() * 2, buffer.position() + length);
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            grown.put(buffer.array(), 0, buffer.position());
+            buffer = grown;
+        }
+        return buffer;
     }
 
     public void copy(DataTypeProvider provider, NetworkType... types) {
@@ -63,14 +94,14 @@ public class PacketBuilder {
      * @param value the value to write
      */
     public void writeVarInt(int value) {
-        writeVarInt(this.bytes, value);
+        writeVarInt(ensureCapacity(MAX_VARINT_SIZE), value);
     }
 
     /**
-     * Method to write a varInt to the given list. Based on: https://wiki.vg/Protocol
+     * Method to write a varInt to the given buffer. Based on: https://wiki.vg/Protocol
      * @param value the value to write
      */
-    private static void writeVarInt(ByteQueue destination, int value) {
+    private static void writeVarInt(ByteBuffer destination, int value) {
         do {
             byte temp = (byte) (value & 0b01111111);
             // Note: >>> means that the sign bit is shifted with the rest of the number rather than being left alone
@@ -78,14 +109,16 @@ public class PacketBuilder {
             if (value != 0) {
                 temp |= 0b10000000;
             }
-            destination.insert(temp);
+            destination.put(temp);
         } while (value != 0);
     }
 
-    private static ByteQueue createVarInt(int value) {
-        ByteQueue res = new ByteQueue(5);
-        writeVarInt(res, value);
-        return res;
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
     }
 
     /**
@@ -104,26 +137,33 @@ public class PacketBuilder {
      * @param arr the bytes to write
      */
     public void writeByteArray(byte[] arr) {
-        for (byte b : arr) {
-            bytes.insert(b);
-        }
+        ensureCapacity(arr.length).put(arr);
     }
 
     /**
-     * Method to write a the packet length to the start of the given list. This is done by writing the varint to a
-     * different ByteQueue first, as we need to know the size before we can prepend it.
+     * Write the contents of another builder, without copying them into an intermediate array first.
      */
-    private void prependPacketLength() {
-        int len = bytes.size();
+    public void writeByteArray(PacketBuilder other) {
+        ensureCapacity(other.size()).put(other.buffer.array(), PREFIX_SIZE, other.size());
+    }
 
-        ByteQueue r = new ByteQueue(5);
-        writeVarInt(r, len);
-        this.bytes.prepend(r);
+    /**
+     * Write the given value as a varInt directly in front of the given offset, in the space reserved for the prefix.
+     * @return the offset at which the varInt starts
+     */
+    private int prependVarInt(int offset, int value) {
+        int start = offset - varIntSize(value);
+        writeVarInt(ByteBuffer.wrap(buffer.array(), start, MAX_VARINT_SIZE), value);
+        return start;
     }
 
-    public ByteQueue build() {
-        prependPacketLength();
-        return bytes;
+    /**
+     * Get the packet prefixed by its length. The length is written into the reserved space in front of the packet, so
+     * the returned buffer shares the builder's array.
+     */
+    public ByteBuffer build() {
+        int start = prependVarInt(PREFIX_SIZE, size());
+        return ByteBuffer.wrap(buffer.array(), start, buffer.position() - start).slice();
     }
 
     /**
@@ -131,36 +171,33 @@ public class PacketBuilder {
      * if it's large enough. The compression manager does compressing, but we still need to prefix the size and let the
      * client know if it was actually compressed.
      */
-    public ByteQueue build(CompressionManager compressionManager) {
+    public ByteBuffer build(CompressionManager compressionManager) {
         if (!compressionManager.isCompressionEnabled()) {
             return build();
         }
 
-        byte[] original = bytes.toArray();
-        byte[] compressed = compressionManager.compressPacket(original);
+        int length = size();
+        byte[] compressed = compressionManager.compressPacket(buffer.array(), PREFIX_SIZE, length);
 
         // no compression happened
-        if (compressed == original) {
+        if (compressed == null) {
             // without compression the prefix is packet length + 0 byte
-            ByteQueue prefix = createVarInt(original.length + 1);
-            prefix.insert((byte) 0);
+            buffer.array()[PREFIX_SIZE - 1] = 0;
+            int start = prependVarInt(PREFIX_SIZE - 1, length + 1);
 
-            this.bytes.prepend(prefix);
-        } else {
-            // with compression we need to first prefix a varInt of the uncompressed data length
-            ByteQueue dataLen = createVarInt(original.length);
+            return ByteBuffer.wrap(buffer.array(), start, buffer.position() - start).slice();
+        }
 
-            // ...and then prefix the length of the entire packet
-            ByteQueue packetLen = createVarInt(dataLen.size() + compressed.length);
+        // with compression we need to first prefix a varInt of the uncompressed data length, and then the length of
+        // the entire packet
+        int packetLength = varIntSize(length) + compressed.length;
 
-            byte[] res = new byte[compressed.length + dataLen.size() + packetLen.size()];
-            System.arraycopy(packetLen.toArray(), 0, res, 0, packetLen.size());
-            System.arraycopy(dataLen.toArray(), 0, res, packetLen.size(), dataLen.size());
-            System.arraycopy(compressed, 0, res, packetLen.size() + dataLen.size(), compressed.length);
+        ByteBuffer res = ByteBuffer.allocate(varIntSize(packetLength) + packetLength);
+        writeVarInt(res, packetLength);
+        writeVarInt(res, length);
+        res.put(compressed);
 
-            return new ByteQueue(res);
-        }
-        return bytes;
+        return res.flip();
     }
 
     /**
@@ -168,25 +205,18 @@ public class PacketBuilder {
      * @param shortVal the value of the short
      */
     public void writeShort(int shortVal) {
-        bytes.insert((byte) ((shortVal >>> 8) & 0xFF));
-        bytes.insert((byte) ((shortVal) & 0xFF));
+        ensureCapacity(Short.BYTES).putShort((short) shortVal);
     }
 
     /**
-     * Write an int, needs to split into 4 bytes in the correct order.
+     * Write an int, in big-endian order.
      */
     public void writeInt(int val) {
-        byte[] bytes = new byte[4];
-        bytes[3] = (byte) (val & 0xFF);
-        bytes[2] = (byte) (val >> 8 & 0xFF);
-        bytes[1] = (byte) (val >> 16 & 0xFF);
-        bytes[0] = (byte) (val >> 24 & 0xFF);
-
-        writeByteArray(bytes);
+        ensureCapacity(Integer.BYTES).putInt(val);
     }
 
     public void writeBoolean(boolean val) {
-        bytes.insert((byte) (val ? 0x1 : 0x0));
+        ensureCapacity(1).put((byte) (val ? 0x1 : 0x0));
     }
 
     /**
@@ -197,7 +227,12 @@ public class PacketBuilder {
             new NamedTag("", nbt).write(new DataOutputStream(new OutputStream() {
                 @Override
                 public void write(int b) {
-                    bytes.insert((byte) b);
+                    ensureCapacity(1).put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    ensureCapacity(len).put(b, off, len);
                 }
             }));
         } catch (IOException e) {
@@ -207,7 +242,7 @@ public class PacketBuilder {
 
 
     public void writeByte(byte b) {
-        bytes.insert(b);
+        ensureCapacity(1).put(b);
     }
 
     public void writeUUID(UUID uuid) {
@@ -216,17 +251,7 @@ public class PacketBuilder {
     }
 
     public void writeLong(long val) {
-        byte[] bytes = new byte[8];
-        bytes[7] = (byte) (val & 0xFF);
-        bytes[6] = (byte) (val >> 8 & 0xFF);
-        bytes[5] = (byte) (val >> 16 & 0xFF);
-        bytes[4] = (byte) (val >> 24 & 0xFF);
-        bytes[3] = (byte) (val >> 32 & 0xFF);
-        bytes[2] = (byte) (val >> 40 & 0xFF);
-        bytes[1] = (byte) (val >> 48 & 0xFF);
-        bytes[0] = (byte) (val >> 56 & 0xFF);
-
-        writeByteArray(bytes);
+        ensureCapacity(Long.BYTES).putLong(val);
     }
 
     public void writeVarIntArray(int[] arr) {
@@ -236,9 +261,9 @@ public class PacketBuilder {
     }
 
     public void writeLongArray(long[] arr) {
-        for (long val : arr) {
-            writeLong(val);
-        }
+        int length = arr.length * Long.BYTES;
+        ensureCapacity(length).asLongBuffer().put(arr);
+        buffer.position(buffer.position() + length);
     }
 
     public void writeStringArray(String[] arr) {
@@ -248,16 +273,13 @@ public class PacketBuilder {
     }
 
     public void writeIntArray(int[] arr) {
-        for (int i : arr) {
-            writeInt(i);
-        }
+        int length = arr.length * Integer.BYTES;
+        ensureCapacity(length).asIntBuffer().put(arr);
+        buffer.position(buffer.position() + length);
     }
 
     public void writeFloat(float val) {
-        ByteBuffer buffer = ByteBuffer.allocate(Float.BYTES);
-        buffer.putFloat(val);
-        ((Buffer) buffer).flip();
-        writeByteArray(buffer.array());
+        ensureCapacity(Float.BYTES).putFloat(val);
     }
 
     public void writeBitSet(BitSet bits) {
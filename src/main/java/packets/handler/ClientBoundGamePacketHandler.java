@@ -17,8 +17,11 @@ import se.llbit.nbt.SpecificTag;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class ClientBoundGamePacketHandler extends PacketHandler {
+    private static final Set<String> SYNCHRONOUS_PACKETS = Set.of("Login", "ForgetLevelChunk", "update_view_distance");
+
     private final HashMap<String, PacketOperator> operations = new HashMap<>();
     public ClientBoundGamePacketHandler(ConnectionManager connectionManager) {
         super(connectionManager);
@@ -175,6 +178,16 @@ public class ClientBoundGamePacketHandler extends PacketHandler {
         );
     }
 
+    @Override
+    public boolean isPipelined() {
+        return Config.usePacketPipeline();
+    }
+
+    @Override
+    public Set<String> getSynchronousPackets() {
+        return SYNCHRONOUS_PACKETS;
+    }
+
     @Override
     public Map<String, PacketOperator> getOperators() {
         return operations;
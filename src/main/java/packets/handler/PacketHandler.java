@@ -6,7 +6,11 @@ import packets.DataProvider;
 import packets.DataTypeProvider;
 import proxy.ConnectionManager;
 
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import javax.naming.SizeLimitExceededException;
 
 /**
@@ -21,7 +25,11 @@ public abstract class PacketHandler {
         PacketHandler.protocol = protocol;
     }
 
+    private static final int MAX_PACKET_ID = 0xFF;
+
     private DataProvider reader;
+    private PacketOperator[] dispatchTable = new PacketOperator[0];
+    private BitSet synchronousPackets = new BitSet();
 
     public PacketHandler(ConnectionManager connectionManager) {
         this.connectionManager = connectionManager;
@@ -31,30 +39,113 @@ public abstract class PacketHandler {
         return connectionManager;
     }
 
+    /**
+     * Read the ID of the given packet, decompressing only as much as is needed for that.
+     * @param packet the packet, without its length prefix
+     */
+    public int peekPacketId(ByteBuffer packet) throws SizeLimitExceededException {
+        return reader.peekPacketId(packet);
+    }
+
+    /**
+     * Build the table of operators indexed by packet ID for the current protocol, so that packets can be dispatched
+     * without looking up their name. Has to be called after all operators have been added, and again whenever the
+     * protocol changes.
+     */
+    public void compileOperators() {
+        PacketOperator[] table = new PacketOperator[MAX_PACKET_ID + 1];
+        BitSet synchronous = new BitSet(MAX_PACKET_ID + 1);
+
+        Map<String, PacketOperator> operators = getOperators();
+        Set<String> synchronousTypes = getSynchronousPackets();
+        for (int id = 0; id <= MAX_PACKET_ID; id++) {
+            String packetType = protocol.get(id, isClientBound());
+            table[id] = operators.get(packetType);
+
+            if (synchronousTypes.contains(packetType)) {
+                synchronous.set(id);
+            }
+        }
+
+        this.dispatchTable = table;
+        this.synchronousPackets = synchronous;
+    }
+
+    /**
+     * Get the operator for the given packet ID, or null if we do not handle these packets.
+     */
+    private PacketOperator getOperator(int packetId) {
+        if (packetId < 0 || packetId >= dispatchTable.length) {
+            return null;
+        }
+        return dispatchTable[packetId];
+    }
+
+    /**
+     * Check if there is an operator for the given packet ID. Packets without one only need to be forwarded, so they
+     * do not have to be decompressed or parsed at all.
+     */
+    public boolean isHandled(int packetId) {
+        return getOperator(packetId) != null;
+    }
+
     /**
      * Build the given packet, will generate a type provider to parse the contents of the packages to real values. Will
      * determine if the packet is to be forwarded using its return value.
-     * @param size the size of the packet to build
+     * @param packet the packet to build, without its length prefix
      * @return true if the packet should be forwarded, otherwise false.
      */
-    public final boolean handle(int size) {
+    public final boolean handle(ByteBuffer packet) {
         DataTypeProvider typeProvider;
         try {
-            typeProvider = reader.withSize(size);
+            typeProvider = reader.withPacket(packet);
         } catch (SizeLimitExceededException ex) {
             System.out.println(ex.getMessage());
             return false;
         }
 
-        int packetID = typeProvider.readVarInt();
+        // operators that use the packet after returning retain it, so we can give up our reference once done
+        try {
+            int packetID = typeProvider.readVarInt();
+
+            PacketOperator operator = getOperator(packetID);
+            if (operator == null) {
+                return true;
+            }
 
-        String packetType = protocol.get(packetID, isClientBound());
-        PacketOperator operator = getOperators().getOrDefault(packetType, null);
-        if (operator == null) {
+            return operator.apply(typeProvider);
+        } finally {
+            typeProvider.release();
+        }
+    }
+
+    /**
+     * Check if the given packet needs to be handled before it can be forwarded, which is the case for packets that
+     * may be replaced or swallowed by the handler. Other packets can be handled in the background after they have been
+     * forwarded, if the handler allows it.
+     * @param packetId the ID of the packet to check
+     * @return true if the packet must be handled before forwarding it
+     */
+    public boolean isSynchronous(int packetId) {
+        if (!isPipelined()) {
             return true;
         }
 
-        return operator.apply(typeProvider);
+        return synchronousPackets.get(packetId);
+    }
+
+    /**
+     * Whether packets can be handled after they have been forwarded, except for the synchronous packets.
+     */
+    public boolean isPipelined() {
+        return false;
+    }
+
+    /**
+     * Packet types that may be replaced or swallowed, and should therefore always be handled before being forwarded.
+     */
+    public Set<String> getSynchronousPackets() {
+        return Collections.emptySet();
     }
 
     public abstract Map<String, PacketOperator> getOperators();
@@ -38,6 +38,11 @@ public class ClientBoundGamePacketHandler_1_15 extends ClientBoundGamePacketHand
 
             replacement.copy(provider, BOOL, BOOL);
 
+            // only replace the packet if we are actually changing the render distance
+            if (viewDist >= Config.getExtendedRenderDistance()) {
+                return true;
+            }
+
             getConnectionManager().getEncryptionManager().sendImmediately(replacement);
             return false;
         });
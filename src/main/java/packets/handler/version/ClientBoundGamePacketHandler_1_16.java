@@ -62,6 +62,11 @@ public class ClientBoundGamePacketHandler_1_16 extends ClientBoundGamePacketHand
                 replacement.copy(provider, BOOL, BOOL, BOOL, BOOL);
             }
 
+            // only replace the packet if we are actually changing the render distance
+            if (viewDist >= Config.getExtendedRenderDistance()) {
+                return true;
+            }
+
             getConnectionManager().getEncryptionManager().sendImmediately(replacement);
             return false;
         });
@@ -0,0 +1,122 @@
+package packets.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of byte arrays used to hold decompressed packets. Arrays are grouped in size classes (powers of two), so that a
+ * returned array can be reused for any packet that fits in it. This keeps large packets, like chunks, from filling up
+ * the young generation with arrays that are only used once.
+ * <p>
+ * Buffers are reference counted, see PooledBuffer. For tests, leak detection can be enabled to keep track of which
+ * buffers were never released and where they were acquired.
+ */
+public final class BufferPool {
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 21;
+
+    // total size of the arrays kept for each size class, so that we keep more small arrays than large ones
+    private static final int MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    private static final int MIN_POOLED_COUNT = 2;
+
+    private static final ArrayBlockingQueue<byte[]>[] pools = createPools();
+
+    private static volatile boolean leakDetection = false;
+    private static final Set<PooledBuffer> live = ConcurrentHashMap.newKeySet();
+
+    private BufferPool() { }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayBlockingQueue<byte[]>[] createPools() {
+        ArrayBlockingQueue<byte[]>[] res = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < res.length; i++) {
+            int size = 1 << (MIN_SHIFT + i);
+            res[i] = new ArrayBlockingQueue<>(Math.max(MIN_POOLED_COUNT, MAX_POOLED_BYTES / size));
+        }
+        return res;
+    }
+
+    /**
+     * Get a buffer that can hold at least the given number of bytes. The buffer has a reference count of 1, and must
+     * be released once it is no longer used. Buffers larger than the largest size class are not pooled.
+     */
+    public static PooledBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+
+        byte[] array;
+        if (sizeClass < pools.length) {
+            array = pools[sizeClass].poll();
+            if (array == null) {
+                array = new byte[1 << (MIN_SHIFT + sizeClass)];
+            }
+        } else {
+            array = new byte[size];
+        }
+
+        PooledBuffer buffer = new PooledBuffer(array, leakDetection ? new Throwable("Buffer acquired here") : null);
+        if (leakDetection) {
+            live.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Called when the last reference to the buffer is released. If there is room, the array is kept for later use.
+     */
+    static void recycle(PooledBuffer buffer) {
+        live.remove(buffer);
+
+        byte[] array = buffer.array();
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass < pools.length && array.length == 1 << (MIN_SHIFT + sizeClass)) {
+            pools[sizeClass].offer(array);
+        }
+    }
+
+    /**
+     * Index of the smallest size class that fits the given number of bytes.
+     */
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Start keeping track of buffers that have been acquired but not released.
+     */
+    public static void enableLeakDetection() {
+        live.clear();
+        leakDetection = true;
+    }
+
+    public static void disableLeakDetection() {
+        leakDetection = false;
+        live.clear();
+    }
+
+    /**
+     * Get the buffers acquired since leak detection was enabled that have not been released yet, as the stack traces
+     * of where they were acquired.
+     */
+    public static List<Throwable> getLeaks() {
+        List<Throwable> res = new ArrayList<>();
+        for (PooledBuffer buffer : live) {
+            res.add(buffer.getOrigin());
+        }
+        return res;
+    }
+
+    /**
+     * Drop all pooled arrays.
+     */
+    public static void clear() {
+        for (ArrayBlockingQueue<byte[]> pool : pools) {
+            pool.clear();
+        }
+    }
+}
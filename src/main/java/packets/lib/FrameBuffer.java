@@ -0,0 +1,182 @@
+package packets.lib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Growable buffer used to split a network stream into length-prefixed packets. Incoming data is appended in bulk, and
+ * complete packets are handed out as slices of the backing array, so bytes are never copied one at a time. Space taken
+ * up by consumed packets is reclaimed by moving the remaining data to the front before the buffer is grown, which
+ * means a packet is always stored contiguously.
+ */
+public class FrameBuffer {
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private byte[] data;
+    private int start;
+    private int end;
+
+    // length of the length prefix and of the packet itself for the frame found by the last call to nextFrame
+    private int headerLength;
+    private int frameLength;
+
+    public FrameBuffer(int initialCapacity) {
+        this.data = new byte[initialCapacity];
+    }
+
+    /**
+     * Append the given bytes to the end of the buffer.
+     */
+    public void put(byte[] src, int offset, int length) {
+        ensureWritable(length);
+        System.arraycopy(src, offset, data, end, length);
+        end += length;
+    }
+
+    /**
+     * Append all remaining bytes of the given buffer to the end of this buffer.
+     */
+    public void put(ByteBuffer src) {
+        int length = src.remaining();
+        ensureWritable(length);
+        src.get(data, end, length);
+        end += length;
+    }
+
+    /**
+     * Reserve space for the given number of bytes at the end of the buffer, so that they can be written directly
+     * into it. The bytes are considered part of the buffer as soon as this method returns.
+     * @return a buffer of the given length over the reserved space
+     */
+    public ByteBuffer reserve(int length) {
+        ensureWritable(length);
+        ByteBuffer reserved = ByteBuffer.wrap(data, end, length).slice();
+        end += length;
+        return reserved;
+    }
+
+    /**
+     * Number of bytes that have been added but not yet consumed.
+     */
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * Check if a complete packet is available at the start of the buffer. The length prefix is decoded directly from
+     * the backing array, and nothing is consumed, so this can be called again once more data has arrived.
+     * @return true if a full packet is available, which can then be read using payload() and frame()
+     */
+    public boolean nextFrame() {
+        int value = 0;
+        int numBytes = 0;
+        byte read;
+        do {
+            if (start + numBytes >= end) {
+                return false;
+            }
+            if (numBytes >= MAX_VARINT_BYTES) {
+                throw new IllegalStateException("VarInt is too big");
+            }
+
+            read = data[start + numBytes];
+            value |= (read & 0b01111111) << (7 * numBytes);
+            numBytes++;
+        } while ((read & 0b10000000) != 0);
+
+        if (value < 0) {
+            throw new IllegalStateException("Invalid packet length: " + value);
+        }
+
+        if (end - start - numBytes < value) {
+            return false;
+        }
+
+        this.headerLength = numBytes;
+        this.frameLength = value;
+        return true;
+    }
+
+    /**
+     * The current packet without its length prefix. The returned buffer shares the backing array, so it is only valid
+     * until the frame is consumed.
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(data, start + headerLength, frameLength).slice();
+    }
+
+    /**
+     * The current packet including its length prefix, exactly as it was received.
+     */
+    public ByteBuffer frame() {
+        return ByteBuffer.wrap(data, start, headerLength + frameLength).slice();
+    }
+
+    /**
+     * Discard the current packet, moving on to the next one.
+     */
+    public void consumeFrame() {
+        start += headerLength + frameLength;
+        headerLength = 0;
+        frameLength = 0;
+
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    /**
+     * Total size of the current packet, including its length prefix.
+     */
+    public int frameSize() {
+        return headerLength + frameLength;
+    }
+
+    /**
+     * The given number of bytes from the start of the buffer, regardless of packet boundaries. Used to read from a
+     * buffer that mirrors another buffer's contents.
+     */
+    public ByteBuffer peek(int length) {
+        return ByteBuffer.wrap(data, start, length).slice();
+    }
+
+    /**
+     * Discard the given number of bytes from the start of the buffer.
+     */
+    public void skip(int length) {
+        start += length;
+
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    public void clear() {
+        start = 0;
+        end = 0;
+        headerLength = 0;
+        frameLength = 0;
+    }
+
+    /**
+     * Make sure there is room for the given number of bytes after the current data. If moving the current data to the
+     * start of the array frees up enough space we do that, otherwise the array is doubled in size.
+     */
+    private void ensureWritable(int length) {
+        if (data.length - end >= length) {
+            return;
+        }
+
+        int size = size();
+        byte[] target = data;
+        if (data.length - size < length) {
+            target = new byte[Math.max(data.length * 2, size + length)];
+        }
+
+        System.arraycopy(data, start, target, 0, size);
+        data = target;
+        start = 0;
+        end = size;
+    }
+}
@@ -0,0 +1,52 @@
+package packets.lib;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Array taken from the BufferPool. The buffer starts with a single reference, held by whoever acquired it. Anything
+ * that holds on to the data after that (like a task given to another thread) has to retain it first and release it
+ * when done. Once the count reaches zero the array is returned to the pool and may be handed out again, so it must not
+ * be read from after that.
+ */
+public class PooledBuffer {
+    private final byte[] array;
+    private final AtomicInteger references;
+    private final Throwable origin;
+
+    PooledBuffer(byte[] array, Throwable origin) {
+        this.array = array;
+        this.references = new AtomicInteger(1);
+        this.origin = origin;
+    }
+
+    /**
+     * The backing array, which may be larger than requested.
+     */
+    public byte[] array() {
+        return array;
+    }
+
+    public PooledBuffer retain() {
+        if (references.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Buffer was retained after it was released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            BufferPool.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Buffer was released more often than it was retained");
+        }
+    }
+
+    public int referenceCount() {
+        return references.get();
+    }
+
+    Throwable getOrigin() {
+        return origin;
+    }
+}
@@ -3,6 +3,8 @@ package packets.version;
 import game.data.container.Slot;
 import packets.DataTypeProvider;
 
+import java.nio.ByteBuffer;
+
 /**
  * Some changes are made in 1.14 to the order of coordinates, this class handles them correctly.
  */
@@ -11,9 +13,13 @@ public class DataTypeProvider_1_13 extends DataTypeProvider {
         super(finalFullPacket);
     }
 
+    public DataTypeProvider_1_13(ByteBuffer buffer) {
+        super(buffer);
+    }
+
     @Override
     public DataTypeProvider ofLength(int length) {
-        return new DataTypeProvider_1_13(this.readByteArray(length));
+        return sharing(new DataTypeProvider_1_13(this.readSlice(length)));
     }
 
     @Override
@@ -3,11 +3,17 @@ package packets.version;
 import game.data.coordinates.Coordinate3D;
 import packets.DataTypeProvider;
 
+import java.nio.ByteBuffer;
+
 public class DataTypeProvider_1_14 extends DataTypeProvider_1_13 {
     public DataTypeProvider_1_14(byte[] finalFullPacket) {
         super(finalFullPacket);
     }
 
+    public DataTypeProvider_1_14(ByteBuffer buffer) {
+        super(buffer);
+    }
+
     @Override
     public Coordinate3D readCoordinates() {
         long val = readLong();
@@ -20,6 +26,6 @@ public class DataTypeProvider_1_14 extends DataTypeProvider_1_13 {
 
     @Override
     public DataTypeProvider ofLength(int length) {
-        return new DataTypeProvider_1_14(this.readByteArray(length));
+        return sharing(new DataTypeProvider_1_14(this.readSlice(length)));
     }
 }
@@ -1,10 +1,8 @@
 package proxy;
 
-import packets.lib.ByteQueue;
-
 import java.io.IOException;
-import java.util.Queue;
+import java.nio.ByteBuffer;
 
 public interface ByteConsumer {
-    void consume(ByteQueue arr) throws IOException;
+    void consume(ByteBuffer arr) throws IOException;
 }
@@ -0,0 +1,66 @@
+package proxy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Output stream for a non-blocking socket channel. Writes are attempted directly on the channel, and only when the
+ * socket's send buffer is full do we wait (on a private selector) until the channel becomes writable again. This
+ * keeps the blocking semantics that the encryption manager expects from its output streams.
+ */
+public class ChannelOutputStream extends OutputStream {
+    private final SocketChannel channel;
+    private Selector writeSelector;
+
+    public ChannelOutputStream(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        write(ByteBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Write all remaining bytes of the given buffer to the channel.
+     */
+    public synchronized void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.write(buffer) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    /**
+     * Block until the channel can accept more data. The selector is only created once we first need it, as most
+     * writes will complete immediately.
+     */
+    private void awaitWritable() throws IOException {
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+        }
+
+        writeSelector.select();
+        writeSelector.selectedKeys().clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+
+        if (writeSelector != null) {
+            writeSelector.close();
+        }
+    }
+}
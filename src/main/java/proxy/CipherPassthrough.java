@@ -0,0 +1,61 @@
+package proxy;
+
+import javax.crypto.spec.IvParameterSpec;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps track of whether encrypted traffic in one direction can be forwarded without re-encrypting it. The proxy uses
+ * the same key and IV on both sides of the connection, so as long as every packet is forwarded unchanged the
+ * re-encrypted output is identical to what was received. Once a packet is injected or swallowed the two streams
+ * diverge for good, and from then on the regular decrypt/encrypt path is used.
+ * <p>
+ * AES/CFB8 only depends on the last 16 bytes of cipher text, so we store those to be able to resume the encryptor at
+ * the exact point where the forwarded stream left off.
+ */
+class CipherPassthrough {
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] register = new byte[BLOCK_SIZE];
+    private boolean active;
+
+    /**
+     * Start forwarding cipher text, from the point where encryption is enabled.
+     * @param iv the IV used by both sides of the connection
+     */
+    void start(byte[] iv) {
+        System.arraycopy(iv, iv.length - BLOCK_SIZE, register, 0, BLOCK_SIZE);
+        active = true;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Keep track of the cipher text that was forwarded. Does not change the buffer's position.
+     */
+    void forwarded(ByteBuffer encrypted) {
+        int length = encrypted.remaining();
+        int start = encrypted.position();
+
+        if (length >= BLOCK_SIZE) {
+            encrypted.get(start + length - BLOCK_SIZE, register, 0, BLOCK_SIZE);
+        } else {
+            System.arraycopy(register, length, register, 0, BLOCK_SIZE - length);
+            encrypted.get(start, register, BLOCK_SIZE - length, length);
+        }
+    }
+
+    /**
+     * Stop forwarding cipher text.
+     * @return the IV that an encryptor should be initialised with to continue the stream that was forwarded so far
+     */
+    IvParameterSpec stop() {
+        active = false;
+        return new IvParameterSpec(register.clone());
+    }
+
+    void reset() {
+        active = false;
+    }
+}
@@ -0,0 +1,119 @@
+package proxy;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Zlib compression using a pooled inflater and deflater for each thread. Both hold native memory that is only freed
+ * once end() is called (or they are finalised), so creating a new one for every packet or chunk causes off-heap memory
+ * to pile up. Each thread only ever uses its own instances, so they never need to be locked.
+ */
+public final class CompressionEngine {
+    private static final int LEVELS = Deflater.BEST_COMPRESSION + 1;
+    private static final int MIN_OUTPUT_SIZE = 64;
+
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<Deflater[]> deflaters = ThreadLocal.withInitial(() -> new Deflater[LEVELS]);
+
+    private CompressionEngine() { }
+
+    /**
+     * Decompress the remaining bytes of the input buffer, when the size of the decompressed data is known up front.
+     * @param input  the compressed data
+     * @param output the buffer to write to, up to its limit
+     * @return the number of bytes written to the output buffer
+     */
+    public static int inflate(ByteBuffer input, ByteBuffer output) throws DataFormatException {
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(input.duplicate());
+
+            int total = 0;
+            while (output.hasRemaining() && !inflater.finished()) {
+                int inflated = inflater.inflate(output);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                total += inflated;
+            }
+            return total;
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Decompress the given range of the input array, when the size of the decompressed data is not known. The output
+     * is grown as needed.
+     */
+    public static byte[] inflate(byte[] input, int offset, int length) throws DataFormatException {
+        Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(input, offset, length);
+
+            byte[] output = new byte[Math.max(MIN_OUTPUT_SIZE, length * 4)];
+            int total = 0;
+            while (!inflater.finished()) {
+                if (total == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+
+                int inflated = inflater.inflate(output, total, output.length - total);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                total += inflated;
+            }
+            return total == output.length ? output : Arrays.copyOf(output, total);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Compress the given range of the input array at the given compression level.
+     * @param level the compression level, or Deflater.DEFAULT_COMPRESSION
+     */
+    public static byte[] deflate(byte[] input, int offset, int length, int level) {
+        Deflater deflater = getDeflater(level);
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+
+            byte[] output = new byte[compressBound(length)];
+            int total = 0;
+            while (!deflater.finished()) {
+                if (total == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                total += deflater.deflate(output, total, output.length - total);
+            }
+            return Arrays.copyOf(output, total);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static Deflater getDeflater(int level) {
+        int index = level == Deflater.DEFAULT_COMPRESSION ? 6 : level;
+        if (index < 0 || index >= LEVELS) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+
+        Deflater[] pool = deflaters.get();
+        if (pool[index] == null) {
+            pool[index] = new Deflater(index);
+        }
+        return pool[index];
+    }
+
+    /**
+     * Upper bound of the compressed size of the given number of bytes, same as zlib's compressBound.
+     */
+    private static int compressBound(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+    }
+}
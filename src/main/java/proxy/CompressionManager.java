@@ -1,14 +1,13 @@
 package proxy;
 
-import org.apache.commons.io.IOUtils;
-
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
-import java.util.zip.InflaterInputStream;
 
 public class CompressionManager {
     private int compressionLimit = 0;
@@ -20,29 +19,23 @@ public class CompressionManager {
     }
 
     /**
-     * Compresses the stream if the size is greater than the compression limit.
-     * Source: https://dzone.com/articles/how-compress-and-uncompress
+     * Compresses the given data at the given compression level.
      */
-    public static byte[] zlibCompress(byte[] input) throws IOException {
-        Deflater deflater = new Deflater();
-        deflater.setInput(input);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length);
-        deflater.finish();
-        byte[] buffer = new byte[1024];
-        while (!deflater.finished()) {
-            int count = deflater.deflate(buffer); // returns the generated code... index
-            outputStream.write(buffer, 0, count);
-        }
-        outputStream.close();
-        return outputStream.toByteArray();
+    public static byte[] zlibCompress(byte[] input, int level) throws IOException {
+        return CompressionEngine.deflate(input, 0, input.length, level);
     }
 
     public static byte[] zlibDecompress(byte[] input) {
-        InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(input));
+        return zlibDecompress(input, 0, input.length);
+    }
 
+    /**
+     * Decompress the given range of the input, without first copying it.
+     */
+    public static byte[] zlibDecompress(byte[] input, int offset, int length) {
         try {
-            return IOUtils.toByteArray(inflater);
-        } catch (IOException e) {
+            return CompressionEngine.inflate(input, offset, length);
+        } catch (DataFormatException e) {
             e.printStackTrace();
             System.out.println("Could not decompress");
         }
@@ -83,45 +76,67 @@ public class CompressionManager {
 
 
     /**
-     * Compressed a packet if it's over the limit. Otherwise, the original is returned. Will also return
-     * the original if something goes wrong during compression, but that will surely never happen.
+     * Compress the given range of a packet if it's over the limit.
+     * @return the compressed data, or null if the packet should be sent uncompressed
      */
-    public byte[] compressPacket(byte[] input) {
-        if (!compressionEnabled || input.length <= compressionLimit) {
-            return input;
+    public byte[] compressPacket(byte[] input, int offset, int length) {
+        if (!compressionEnabled || length <= compressionLimit) {
+            return null;
         }
 
-        try {
-            return zlibCompress(input);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return input;
-        }
+        return CompressionEngine.deflate(input, offset, length, Deflater.DEFAULT_COMPRESSION);
     }
 
     /**
-     * Decompress the given input.
-     * @param input  the input data
-     * @param offset the offset to start decompression from
-     * @param len    the length of the compressed data. When 0, no decompression will be done.
+     * Decompress the given packet data, starting at the buffer's position.
+     * @param input the input data
+     * @param len   the length of the uncompressed data. When 0, the data was not compressed.
      * @return the decompressed data
      */
-    public byte[] decompressPacket(byte[] input, int offset, int len) {
-        if (!compressionEnabled) {
-            return input;
-        }
-
+    public byte[] decompressPacket(ByteBuffer input, int len) {
+        byte[] res;
         if (len == 0) {
-            byte[] res = new byte[input.length - offset];
-            System.arraycopy(input, offset, res, 0, res.length);
+            res = new byte[input.remaining()];
+            input.get(res);
             return res;
         }
 
-        byte[] toDecompress = new byte[input.length - offset];
-        System.arraycopy(input, offset, toDecompress, 0, toDecompress.length);
-        return zlibDecompress(toDecompress);
+        // the uncompressed length is known, so we can inflate directly into an array of the right size
+        res = new byte[len];
+        decompressPacket(input, ByteBuffer.wrap(res));
+        return res;
     }
 
+    /**
+     * Decompress the given packet data, starting at the input buffer's position, into the output buffer up to its
+     * limit.
+     */
+    public void decompressPacket(ByteBuffer input, ByteBuffer output) {
+        try {
+            CompressionEngine.inflate(input, output);
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+            System.out.println("Could not decompress");
+        }
+    }
+
+    /**
+     * Decompress only the first few bytes of the given packet data, starting at the buffer's position. The input
+     * buffer's position is not changed.
+     * @param input  the compressed data
+     * @param output the buffer to decompress into, which is cleared first. Afterwards it is ready to be read from, and
+     *               may hold fewer bytes than its capacity if the packet is smaller.
+     */
+    public void decompressPrefix(ByteBuffer input, ByteBuffer output) {
+        output.clear();
+        try {
+            CompressionEngine.inflate(input, output);
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+            System.out.println("Could not decompress");
+        }
+        output.flip();
+    }
 
     public boolean isCompressionEnabled() {
         return compressionEnabled;
@@ -6,8 +6,9 @@ import org.xbill.DNS.SRVRecord;
 import org.xbill.DNS.Type;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 import static util.ExceptionHandling.attempt;
 
@@ -44,12 +45,12 @@ public class ConnectionDetails {
         return portLocal;
     }
 
-    public ServerSocket getServerSocket() throws IOException {
-        return new ServerSocket(getPortLocal());
+    public ServerSocketChannel getServerSocketChannel() throws IOException {
+        return ServerSocketChannel.open().bind(new InetSocketAddress(getPortLocal()));
     }
 
-    public Socket getClientSocket() throws IOException {
-        return new Socket(host, portRemote);
+    public SocketChannel getClientSocketChannel() throws IOException {
+        return SocketChannel.open(new InetSocketAddress(host, portRemote));
     }
 
     public String getConnectionHint() {
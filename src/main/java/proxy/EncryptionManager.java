@@ -2,7 +2,6 @@ package proxy;
 
 import config.Config;
 import packets.builder.PacketBuilder;
-import packets.lib.ByteQueue;
 import proxy.auth.AuthDetailsManager;
 import proxy.auth.ClientAuthenticator;
 import proxy.auth.ServerAuthenticator;
@@ -13,6 +12,7 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyFactory;
 import java.security.KeyPair;
@@ -21,9 +21,10 @@ import java.security.MessageDigest;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.UnaryOperator;
 
 import static util.PrintUtils.devPrintFormat;
 
@@ -32,19 +33,27 @@ import static util.PrintUtils.devPrintFormat;
  */
 public class EncryptionManager {
     private static final String ENCRYPTION_TYPE = "AES/CFB8/NoPadding";
+    private static final int MAX_INSERTED_PER_PACKET = 100;
+    private static final long INJECTION_INTERVAL = 5;
+    private static final long THROUGHPUT_INTERVAL = 100;
     private boolean encryptionEnabled = false;
     private String serverId;
     private RSAPublicKey serverRealPublicKey;
     private byte[] serverVerifyToken;
     private byte[] clientSharedSecret;
     private Cipher clientBoundDecryptor, clientBoundEncryptor, serverBoundEncryptor, serverBoundDecryptor;
-    private OutputStream streamToClient;
-    private OutputStream streamToServer;
+    private SecretKeySpec sharedKey;
+    private final CipherPassthrough clientBoundPassthrough = new CipherPassthrough();
+    private final CipherPassthrough serverBoundPassthrough = new CipherPassthrough();
+    private OutboundWriter writerToClient;
+    private OutboundWriter writerToServer;
     private KeyPair serverKeyPair;
     private String username;
-    private final ConcurrentLinkedQueue<ByteQueue> insertedPackets;
+    private final InjectionScheduler injectionScheduler;
     private final CompressionManager compressionManager;
     private final ClientAuthenticator clientAuthenticator;
+    private ScheduledExecutorService flushService;
+    private ScheduledExecutorService injectionService;
 
     {
         // generate the keypair for the local server
@@ -57,20 +66,61 @@ public class EncryptionManager {
 
     public EncryptionManager(CompressionManager compressionManager) {
         this.compressionManager = compressionManager;
-        this.insertedPackets = new ConcurrentLinkedQueue<>();
+        this.injectionScheduler = new InjectionScheduler();
         this.clientAuthenticator = new ClientAuthenticator();
     }
 
+    /**
+     * Start the periodic tasks for a new connection. They are stopped again when the connection is reset.
+     */
+    private synchronized void startServices() {
+        stopServices();
+
+        // make sure packets written outside of the proxy thread are not held back for too long
+        long delay = Config.getMaxFlushDelay();
+        flushService = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Outbound Flush Service"));
+        flushService.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.MILLISECONDS);
+
+        // send injected packets even when the server is not sending us anything
+        injectionService = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Packet Injection Service"));
+        injectionService.scheduleWithFixedDelay(this::drainInsertedPackets, INJECTION_INTERVAL, INJECTION_INTERVAL, TimeUnit.MILLISECONDS);
+        injectionService.scheduleWithFixedDelay(injectionScheduler::measure, THROUGHPUT_INTERVAL, THROUGHPUT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopServices() {
+        if (flushService != null) {
+            flushService.shutdown();
+            flushService = null;
+        }
+        if (injectionService != null) {
+            injectionService.shutdown();
+            injectionService = null;
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
     public boolean isEncryptionEnabled() {
         return encryptionEnabled;
     }
 
     /**
-     * Adds a packet to the queue. This queue is checked whenever a packet is sent, and they will be sent to the
-     * client after.
+     * Adds a packet to the queue. This queue is checked whenever a packet is sent, and periodically when no packets
+     * are being sent. Packets are sent to the client as fast as the injection scheduler allows.
      */
     public void enqueuePacket(PacketBuilder packet) {
-        insertedPackets.add(packet.build(compressionManager));
+        enqueuePacket(packet, InjectionScheduler.Priority.MESSAGE);
+    }
+
+    /**
+     * Adds a packet to the queue with the given priority. For chunks, this may wait until there is room in the queue.
+     */
+    public void enqueuePacket(PacketBuilder packet, InjectionScheduler.Priority priority) {
+        injectionScheduler.enqueue(packet.build(compressionManager), priority);
     }
 
     /**
@@ -114,8 +164,8 @@ public class EncryptionManager {
         } catch (Exception ex) {
             ex.printStackTrace();
 
-            attempt(() -> streamToServer.close());
-            attempt(() -> streamToClient.close());
+            attempt(() -> writerToServer.close());
+            attempt(() -> writerToClient.close());
             return false;
         }
         return true;
@@ -139,55 +189,151 @@ public class EncryptionManager {
     }
 
     /**
-     * Method to stream a given queue of bytes to the client. Whenever this is called it also checks whether we have
+     * Method to stream a given buffer of bytes to the client. Whenever this is called it also checks whether we have
      * any injected packets queued to be sent to the client.
      * @param bytes the bytes to stream
      */
-    public void streamToClient(ByteQueue bytes) throws IOException {
-        streamTo(streamToClient, bytes, this::clientBoundEncrypt);
-
-        // if we need to insert packets, send at most 100 at a time
-        int limit = 100;
-        while (!insertedPackets.isEmpty() && limit > 0) {
-            limit--;
-            streamTo(streamToClient, insertedPackets.remove(), this::clientBoundEncrypt);
+    public void streamToClient(ByteBuffer bytes) throws IOException {
+        synchronized (clientBoundPassthrough) {
+            int size = bytes.remaining();
+            injectionScheduler.forwarded(size);
+            streamTo(writerToClient, bytes, clientBoundPassthrough, clientBoundEncryptor);
+            streamInsertedPackets(size);
+        }
+    }
+
+    /**
+     * Forward cipher text received from the server to the client without re-encrypting it. This is only possible
+     * while the client-bound stream has not been changed by the proxy.
+     * @param encrypted the received cipher text
+     * @return false if the cipher text cannot be forwarded, in which case the decrypted bytes should be sent instead
+     */
+    public boolean forwardToClient(ByteBuffer encrypted) throws IOException {
+        synchronized (clientBoundPassthrough) {
+            if (!clientBoundPassthrough.isActive()) {
+                return false;
+            }
+
+            int size = encrypted.remaining();
+            injectionScheduler.forwarded(size);
+            clientBoundPassthrough.forwarded(encrypted);
+            writerToClient.write(encrypted, null);
+            streamInsertedPackets(size);
+            return true;
+        }
+    }
+
+    /**
+     * If we need to insert packets, send them after the packet that was just forwarded. To share the connection fairly
+     * between the two, we send about as many bytes of injected packets as were forwarded, with at least one packet and
+     * at most 100 at a time. The injection scheduler may hold packets back if they are being sent too quickly.
+     * @param forwardedSize the size of the forwarded packet
+     * @return the number of packets that were sent
+     */
+    private int streamInsertedPackets(int forwardedSize) throws IOException {
+        int sent = 0;
+        int count = 0;
+        while (count < MAX_INSERTED_PER_PACKET && (count == 0 || sent < forwardedSize)) {
+            ByteBuffer packet = injectionScheduler.poll();
+            if (packet == null) {
+                break;
+            }
+            sent += packet.remaining();
+            count++;
+
+            streamTo(writerToClient, packet, clientBoundPassthrough, clientBoundEncryptor);
+        }
+        return count;
+    }
+
+    /**
+     * Send any injected packets that the scheduler allows, called periodically so that injected packets are also sent
+     * when the server is quiet.
+     */
+    private void drainInsertedPackets() {
+        if (writerToClient == null || !injectionScheduler.hasQueued()) {
+            return;
         }
 
+        try {
+            int count;
+            synchronized (clientBoundPassthrough) {
+                count = streamInsertedPackets(Integer.MAX_VALUE);
+            }
+
+            if (count > 0) {
+                writerToClient.flush();
+            }
+        } catch (IOException ex) {
+            // the proxy will notice the connection is closed and reset
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
     }
 
     /**
-     * Method to stream a queue of bytes to a given output stream. The stream will be encrypted if encryption has been
-     * enabled.
-     * @param stream  the stream to write to
-     * @param bytes   the bytes to write
-     * @param encrypt the encryption operator
+     * Called when a client-bound packet was not forwarded, meaning the cipher text can no longer be passed on as-is.
      */
-    private void streamTo(OutputStream stream, ByteQueue bytes, UnaryOperator<byte[]> encrypt) throws IOException {
-        byte[] b = bytes.toArray();
+    public void skippedClientBound() {
+        synchronized (clientBoundPassthrough) {
+            stopPassthrough(clientBoundPassthrough, clientBoundEncryptor);
+        }
+    }
 
-        byte[] encrypted = encrypt.apply(b);
+    /**
+     * Method to stream a buffer of bytes to a given writer. The stream will be encrypted if encryption has been
+     * enabled. As we are now sending bytes that were not received as cipher text, any passthrough in this direction
+     * ends here.
+     * @param writer      the writer to write to
+     * @param bytes       the bytes to write
+     * @param passthrough the passthrough state for this direction
+     * @param encryptor   the encryptor for this direction
+     */
+    private void streamTo(OutboundWriter writer, ByteBuffer bytes, CipherPassthrough passthrough, Cipher encryptor) throws IOException {
+        if (!encryptionEnabled) {
+            writer.write(bytes, null);
+            return;
+        }
 
-        stream.write(encrypted, 0, encrypted.length);
-        stream.flush();
+        stopPassthrough(passthrough, encryptor);
+        writer.write(bytes, encryptor);
     }
 
     /**
-     * Encrypts a given byte array using the encryption stream for the client-side.
+     * Write out all packets that have been buffered in either direction. Called when the proxy has handled all
+     * incoming data, and periodically to bound the delay for packets written from other threads.
      */
-    private byte[] clientBoundEncrypt(byte[] bytes) {
-        return encrypt(bytes, clientBoundEncryptor);
+    public void flush() {
+        OutboundWriter toClient = writerToClient;
+        OutboundWriter toServer = writerToServer;
+
+        if (toClient != null) {
+            attemptFlush(toClient);
+        }
+        if (toServer != null) {
+            attemptFlush(toServer);
+        }
+    }
+
+    private static void attemptFlush(OutboundWriter writer) {
+        try {
+            writer.flush();
+        } catch (IOException ex) {
+            // the proxy will notice the connection is closed and reset
+        }
     }
 
     /**
-     * Encrypts a given byte array using the the given encryptor, if encryption has been enabled.
+     * Stop forwarding cipher text in the given direction. The encryptor is re-initialised so that it continues the
+     * stream from the last forwarded byte, which is where the receiving side's decryptor is at.
      */
-    private byte[] encrypt(byte[] bytes, Cipher encryptor) {
-        if (!encryptionEnabled) { return bytes; }
+    private void stopPassthrough(CipherPassthrough passthrough, Cipher encryptor) {
+        if (!passthrough.isActive()) { return; }
 
         try {
-            return encryptor.update(bytes);
+            encryptor.init(Cipher.ENCRYPT_MODE, sharedKey, passthrough.stop());
         } catch (Exception ex) {
-            throw new RuntimeException("Could not encrypt stream!", ex);
+            throw new RuntimeException("Could not resume encryption stream!", ex);
         }
     }
 
@@ -264,15 +410,53 @@ public class EncryptionManager {
         return new BigInteger(sha1.get().digest()).toString(16);
     }
 
-    public void streamToServer(ByteQueue bytes) throws IOException {
+    public void streamToServer(ByteBuffer bytes) throws IOException {
         // System.out.println("Writing bytes to server: " + bytes.size() + " :: " + bytes);
-        streamTo(streamToServer, bytes, this::serverBoundEncrypt);
+        synchronized (serverBoundPassthrough) {
+            streamTo(writerToServer, bytes, serverBoundPassthrough, serverBoundEncryptor);
+        }
+    }
+
+    /**
+     * Forward cipher text received from the client to the server without re-encrypting it.
+     * @see #forwardToClient(ByteBuffer)
+     */
+    public boolean forwardToServer(ByteBuffer encrypted) throws IOException {
+        synchronized (serverBoundPassthrough) {
+            if (!serverBoundPassthrough.isActive()) {
+                return false;
+            }
+
+            serverBoundPassthrough.forwarded(encrypted);
+            writerToServer.write(encrypted, null);
+            return true;
+        }
+    }
+
+    /**
+     * Called when a server-bound packet was not forwarded.
+     */
+    public void skippedServerBound() {
+        synchronized (serverBoundPassthrough) {
+            stopPassthrough(serverBoundPassthrough, serverBoundEncryptor);
+        }
+    }
+
+    public boolean isClientBoundPassthrough() {
+        return clientBoundPassthrough.isActive();
+    }
+
+    public boolean isServerBoundPassthrough() {
+        return serverBoundPassthrough.isActive();
     }
 
     /**
      * Enable encryption for all future packets. We need to create four cyphers: a decryptor and encryptor for the
      * client-bound packets, and a decryptor and encryptor for the server-bound packets. As the cypher is continuous
      * and not per-packet we cannot re-use the streams between the client and server despite them having the same key.
+     * <p>
+     * Because both sides use the same key and IV, the received cipher text is forwarded unchanged until the proxy
+     * first changes the stream in either direction.
      */
     private void enableEncryption() {
         attempt(() -> {
@@ -290,45 +474,64 @@ public class EncryptionManager {
             serverBoundDecryptor = Cipher.getInstance(ENCRYPTION_TYPE);
             serverBoundDecryptor.init(Cipher.DECRYPT_MODE, k, ivspec);
 
+            sharedKey = k;
+            synchronized (clientBoundPassthrough) {
+                clientBoundPassthrough.start(clientSharedSecret);
+            }
+            synchronized (serverBoundPassthrough) {
+                serverBoundPassthrough.start(clientSharedSecret);
+            }
+
             encryptionEnabled = true;
         });
     }
 
-    private byte[] serverBoundEncrypt(byte[] bytes) {
-        return encrypt(bytes, serverBoundEncryptor);
-    }
-
     public void setStreamToClient(OutputStream streamToClient) {
-        this.streamToClient = streamToClient;
+        this.writerToClient = new OutboundWriter(streamToClient);
+        startServices();
     }
 
     public void setStreamToServer(OutputStream streamToServer) {
-        this.streamToServer = streamToServer;
+        this.writerToServer = new OutboundWriter(streamToServer);
     }
 
-    public byte[] serverBoundDecrypt(byte[] bytes) {
-        return decrypt(bytes, serverBoundDecryptor);
+    public void serverBoundDecrypt(ByteBuffer input, ByteBuffer output) {
+        decrypt(input, output, serverBoundDecryptor);
     }
 
-    private byte[] decrypt(byte[] bytes, Cipher decryptor) {
-        if (!encryptionEnabled) { return bytes; }
+    /**
+     * Decrypt the remaining bytes of the input into the output buffer. AES/CFB8 produces exactly one byte of output for
+     * each byte of input, so the output only needs to be as large as the input.
+     */
+    private void decrypt(ByteBuffer input, ByteBuffer output, Cipher decryptor) {
+        if (!encryptionEnabled) {
+            output.put(input);
+            return;
+        }
 
         try {
-            return decryptor.update(bytes);
+            decryptor.update(input, output);
         } catch (Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
-        return null;
     }
 
-    public byte[] clientBoundDecrypt(byte[] bytes) {
-        return decrypt(bytes, clientBoundDecryptor);
+    public void clientBoundDecrypt(ByteBuffer input, ByteBuffer output) {
+        decrypt(input, output, clientBoundDecryptor);
     }
 
     public void reset() {
+        stopServices();
         encryptionEnabled = false;
-        this.insertedPackets.clear();
+        this.injectionScheduler.reset();
+
+        synchronized (clientBoundPassthrough) {
+            clientBoundPassthrough.reset();
+        }
+        synchronized (serverBoundPassthrough) {
+            serverBoundPassthrough.reset();
+        }
     }
 
     /**
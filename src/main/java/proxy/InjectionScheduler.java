@@ -0,0 +1,160 @@
+package proxy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Decides when injected packets can be sent to the client. Sending is limited by two token buckets, one for bytes and
+ * one for packets, so that the client is not flooded when many chunks are injected at once. The byte rate is adjusted
+ * to the amount of traffic the server is sending: on a quiet server injected packets can use most of the bandwidth,
+ * while on a busy server they get what is left over (but never less than a minimum rate).
+ * <p>
+ * Packets are queued by priority, so that messages for the player are not stuck behind a long queue of chunks. Chunks
+ * are produced much faster than they can be sent, so queueing them waits when too many bytes are already queued.
+ */
+public class InjectionScheduler {
+    public enum Priority {
+        MESSAGE, CHUNK
+    }
+
+    private static final double TARGET_BYTE_RATE = 8 * 1024 * 1024;
+    private static final double MIN_BYTE_RATE = 512 * 1024;
+    private static final double BYTE_BURST = 256 * 1024;
+    private static final double PACKET_RATE = 200;
+    private static final double PACKET_BURST = 20;
+
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+    private static final long MAX_QUEUED_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private final List<Queue<ByteBuffer>> queues;
+    private long queuedChunkBytes;
+
+    private double byteTokens;
+    private double packetTokens;
+    private long lastRefill;
+
+    private long forwardedBytes;
+    private long lastMeasurement;
+    private double forwardedRate;
+
+    public InjectionScheduler() {
+        this.queues = new ArrayList<>();
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+
+        reset();
+    }
+
+    /**
+     * Queue a packet to be sent to the client. For chunks this will wait if the queue is already full.
+     */
+    public synchronized void enqueue(ByteBuffer packet, Priority priority) {
+        if (priority == Priority.CHUNK) {
+            while (queuedChunkBytes > MAX_QUEUED_CHUNK_BYTES) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            queuedChunkBytes += packet.remaining();
+        }
+
+        queues.get(priority.ordinal()).add(packet);
+    }
+
+    /**
+     * Get the next packet that may be sent right now, if any.
+     * @return the packet, or null if there is none or the rate limit has been reached
+     */
+    public synchronized ByteBuffer poll() {
+        refill();
+        if (byteTokens <= 0 || packetTokens < 1) {
+            return null;
+        }
+
+        for (Priority priority : Priority.values()) {
+            ByteBuffer packet = queues.get(priority.ordinal()).poll();
+            if (packet == null) {
+                continue;
+            }
+
+            byteTokens -= packet.remaining();
+            packetTokens -= 1;
+
+            if (priority == Priority.CHUNK) {
+                queuedChunkBytes -= packet.remaining();
+                notifyAll();
+            }
+            return packet;
+        }
+        return null;
+    }
+
+    public synchronized boolean hasQueued() {
+        return queues.stream().anyMatch(queue -> !queue.isEmpty());
+    }
+
+    /**
+     * Keep track of the bytes forwarded from the server, so that we can adjust the rate for injected packets.
+     */
+    public synchronized void forwarded(int bytes) {
+        forwardedBytes += bytes;
+    }
+
+    /**
+     * Update the measured throughput of forwarded packets. Called periodically, as measuring over very short
+     * intervals would be too noisy.
+     */
+    public synchronized void measure() {
+        long now = System.nanoTime();
+        double seconds = (now - lastMeasurement) / 1e9;
+        if (seconds <= 0) {
+            return;
+        }
+
+        double rate = forwardedBytes / seconds;
+        forwardedRate = THROUGHPUT_SMOOTHING * rate + (1 - THROUGHPUT_SMOOTHING) * forwardedRate;
+
+        forwardedBytes = 0;
+        lastMeasurement = now;
+    }
+
+    /**
+     * Add tokens to both buckets for the time that has passed since the last refill. Sending a packet is allowed as
+     * long as there are tokens left, even if the packet is larger than that, so that large chunks can still be sent.
+     * The bucket will then go negative and recover over time.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        double seconds = (now - lastRefill) / 1e9;
+        lastRefill = now;
+
+        double byteRate = Math.max(MIN_BYTE_RATE, TARGET_BYTE_RATE - forwardedRate);
+        byteTokens = Math.min(BYTE_BURST, byteTokens + byteRate * seconds);
+        packetTokens = Math.min(PACKET_BURST, packetTokens + PACKET_RATE * seconds);
+    }
+
+    /**
+     * Discard all queued packets, for when the connection is lost.
+     */
+    public synchronized void reset() {
+        queues.forEach(Queue::clear);
+        queuedChunkBytes = 0;
+
+        byteTokens = BYTE_BURST;
+        packetTokens = PACKET_BURST;
+        lastRefill = System.nanoTime();
+
+        forwardedBytes = 0;
+        forwardedRate = 0;
+        lastMeasurement = lastRefill;
+
+        notifyAll();
+    }
+}
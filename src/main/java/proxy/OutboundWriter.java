@@ -0,0 +1,75 @@
+package proxy;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Collects outgoing packets for one side of the connection so that they can be written to the socket together,
+ * instead of issuing a write (and sending a small TCP segment) for every packet. Packets are encrypted directly into
+ * the writer's buffer. The buffer is written out when it fills up, when the proxy has no more incoming data to handle
+ * and when the maximum flush delay has passed, whichever comes first.
+ */
+class OutboundWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream stream;
+    private final ByteBuffer buffer;
+
+    OutboundWriter(OutputStream stream) {
+        this.stream = stream;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Add the remaining bytes of the given buffer to the output, encrypting them if an encryptor is given.
+     * @param bytes     the bytes to write
+     * @param encryptor the encryptor to use, or null if the bytes should be written as they are
+     */
+    synchronized void write(ByteBuffer bytes, Cipher encryptor) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+
+            // only take as many bytes as fit in the buffer, larger packets are written in parts
+            int length = Math.min(bytes.remaining(), buffer.remaining());
+            ByteBuffer part = bytes.slice();
+            part.limit(length);
+            bytes.position(bytes.position() + length);
+
+            if (encryptor == null) {
+                buffer.put(part);
+            } else {
+                encrypt(part, encryptor);
+            }
+        }
+    }
+
+    private void encrypt(ByteBuffer part, Cipher encryptor) {
+        try {
+            encryptor.update(part, buffer);
+        } catch (Exception ex) {
+            throw new RuntimeException("Could not encrypt stream!", ex);
+        }
+    }
+
+    /**
+     * Write any buffered bytes to the stream.
+     */
+    synchronized void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+
+        stream.write(buffer.array(), 0, buffer.position());
+        stream.flush();
+        buffer.clear();
+    }
+
+    synchronized void close() throws IOException {
+        buffer.clear();
+        stream.close();
+    }
+}
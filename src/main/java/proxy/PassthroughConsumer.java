@@ -0,0 +1,12 @@
+package proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface PassthroughConsumer {
+    /**
+     * Forward the given cipher text unchanged, if that is still possible.
+     * @return false if the streams have diverged and the decrypted bytes need to be sent instead
+     */
+    boolean forward(ByteBuffer encrypted) throws IOException;
+}
@@ -3,16 +3,19 @@ package proxy;
 import game.NetworkMode;
 import packets.DataReader;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.atomic.AtomicReference;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 
 import static util.ExceptionHandling.attempt;
 
 /**
- * Proxy server class, handles receiving of data and forwarding it to the right places.
+ * Proxy server class, handles receiving of data and forwarding it to the right places. All sockets are non-blocking
+ * and are serviced from a single selector loop, so no threads are created per connection.
  */
 public class ProxyServer extends Thread {
     private final ConnectionDetails connectionDetails;
@@ -21,6 +24,11 @@ public class ProxyServer extends Thread {
     private DataReader onServerBoundPacket;
     private DataReader onClientBoundPacket;
 
+    private Selector selector;
+    private SelectionKey acceptKey;
+    private SocketChannel client;
+    private SocketChannel server;
+
     public ProxyServer(ConnectionManager connectionManager, ConnectionDetails connectionDetails) {
         this.connectionDetails = connectionDetails;
         this.connectionManager = connectionManager;
@@ -41,85 +49,168 @@ public class ProxyServer extends Thread {
     @Override
     public void run() {
         setName("Proxy");
-        
+
         String friendlyHost = connectionDetails.getFriendlyHost();
         System.out.println("Starting proxy for " + friendlyHost + ". Make sure to connect to localhost:" + connectionDetails.getPortLocal() + " instead of the regular server address.");
 
-        // Create a ServerSocket to listen for connections with
-        AtomicReference<ServerSocket> ss = new AtomicReference<>();
-        attempt(() -> ss.set(connectionDetails.getServerSocket()), (ex) -> {
+        // Create a non-blocking server channel to listen for connections with
+        attempt(() -> {
+            selector = Selector.open();
+
+            ServerSocketChannel ss = connectionDetails.getServerSocketChannel();
+            ss.configureBlocking(false);
+            acceptKey = ss.register(selector, SelectionKey.OP_ACCEPT);
+        }, (ex) -> {
             ex.printStackTrace();
             System.exit(1);
         });
 
-        final byte[] request = new byte[4096];
-        final byte[] reply = new byte[4096];
-
         while (true) {
-            AtomicReference<Socket> client = new AtomicReference<>();
-            AtomicReference<Socket> server = new AtomicReference<>();
-
-            attempt(() -> {
-                // Wait for a connection on the local port
-                client.set(ss.get().accept());
-
-                final InputStream streamFromClient = client.get().getInputStream();
-                final OutputStream streamToClient = client.get().getOutputStream();
-                connectionManager.getEncryptionManager().setStreamToClient(streamToClient);
-
-                // If the server cannot connect, close client connection
-                attempt(() -> server.set(connectionDetails.getClientSocket()), (ex) -> {
-                    System.err.println("Cannot connect to " + friendlyHost + ". The server may be down or on a different address. (" + ex.getClass().getCanonicalName() + ")");
-                    attempt(client.get()::close);
-                });
-
-                final InputStream streamFromServer = server.get().getInputStream();
-                final OutputStream streamToServer = server.get().getOutputStream();
-                connectionManager.getEncryptionManager().setStreamToServer(streamToServer);
-
-                // start client listener thread
-                Thread clientListener = new Thread(() -> {
-                    connectionManager.setMode(NetworkMode.HANDSHAKE);
-                    attempt(() -> {
-                        int bytesRead;
-                        while ((bytesRead = streamFromClient.read(request)) != -1) {
-                            onServerBoundPacket.pushData(request, bytesRead);
-                        }
-                    }, (ex) -> {
-                        Throwable cause = ex.getCause();
-                        if (cause != null) {
-                            cause.printStackTrace();
-                        }
-                        System.out.println("Server probably disconnected. Waiting for new connection...");
-                        connectionManager.reset();
-                    });
-                    // the client closed the connection to us, so close our connection to the server.
-                    attempt(streamToServer::close);
-                }, "Proxy Client Listener");
-                clientListener.start();
-                clientListener.setPriority(10);
-
-                // listen to messages from server
-                attempt(() -> {
-                    int bytesRead;
-                    while ((bytesRead = streamFromServer.read(reply)) != -1) {
-                        onClientBoundPacket.pushData(reply, bytesRead);
-                    }
-                }, (ex) -> {
-                    Throwable cause = ex.getCause();
-                    if (cause != null) {
-                        cause.printStackTrace();
-                    }
-                    System.out.println("Client probably disconnected. Waiting for new connection...");
-                    connectionManager.reset();
-                });
-
-                // The server closed its connection to us, so we close our connection to our client.
-                streamToClient.close();
-            }, (ex) -> {
-                if (server.get() != null) { attempt(server.get()::close); }
-                if (client.get() != null) { attempt(client.get()::close); }
+            attempt(this::select, (ex) -> {
+                ex.printStackTrace();
+                closeConnection();
             });
         }
     }
+
+    /**
+     * Wait for any of the registered channels to become ready and handle each of them.
+     */
+    private void select() throws IOException {
+        selector.select();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                accept((ServerSocketChannel) key.channel());
+            } else if (key.isReadable()) {
+                read(key);
+            }
+        }
+
+        // all available data has been handled, so send out whatever was written in response
+        connectionManager.getEncryptionManager().flush();
+    }
+
+    /**
+     * Accept a new client connection and open the matching connection to the remote server. While a client is
+     * connected, no further connections are accepted.
+     */
+    private void accept(ServerSocketChannel ss) throws IOException {
+        SocketChannel newClient = ss.accept();
+        if (newClient == null) {
+            return;
+        }
+
+        // If the server cannot connect, close client connection
+        SocketChannel newServer;
+        try {
+            newServer = connectionDetails.getClientSocketChannel();
+        } catch (IOException ex) {
+            System.err.println("Cannot connect to " + connectionDetails.getFriendlyHost() + ". The server may be down or on a different address. (" + ex.getClass().getCanonicalName() + ")");
+            attempt(newClient::close);
+            return;
+        }
+
+        this.client = newClient;
+        this.server = newServer;
+
+        client.configureBlocking(false);
+        server.configureBlocking(false);
+
+        EncryptionManager encryptionManager = connectionManager.getEncryptionManager();
+        encryptionManager.setStreamToClient(new ChannelOutputStream(client));
+        encryptionManager.setStreamToServer(new ChannelOutputStream(server));
+
+        connectionManager.setMode(NetworkMode.HANDSHAKE);
+
+        client.register(selector, SelectionKey.OP_READ, new ChannelSource(
+            client, onServerBoundPacket, "Client disconnected. Waiting for new connection..."
+        ));
+        server.register(selector, SelectionKey.OP_READ, new ChannelSource(
+            server, onClientBoundPacket, "Server probably disconnected. Waiting for new connection..."
+        ));
+
+        acceptKey.interestOps(0);
+    }
+
+    /**
+     * Read whatever data is available on the channel and push it to the relevant data reader. If the channel was
+     * closed by the other side, the whole connection is closed.
+     */
+    private void read(SelectionKey key) throws IOException {
+        ChannelSource source = (ChannelSource) key.attachment();
+
+        int bytesRead;
+        try {
+            bytesRead = source.channel.read(source.buffer);
+        } catch (IOException ex) {
+            bytesRead = -1;
+        }
+
+        if (bytesRead == -1) {
+            System.out.println(source.closeMessage);
+            closeConnection();
+            return;
+        }
+
+        source.buffer.flip();
+        try {
+            source.reader.pushData(source.buffer);
+        } catch (Exception ex) {
+            Throwable cause = ex.getCause();
+            if (cause != null) {
+                cause.printStackTrace();
+            }
+            System.out.println(source.closeMessage);
+            closeConnection();
+            return;
+        }
+        source.buffer.clear();
+    }
+
+    /**
+     * Close both sides of the current connection and start accepting new connections again.
+     */
+    private void closeConnection() {
+        boolean wasConnected = client != null || server != null;
+
+        if (client != null) { attempt(client::close); }
+        if (server != null) { attempt(server::close); }
+        client = null;
+        server = null;
+
+        if (wasConnected) {
+            connectionManager.reset();
+        }
+
+        if (acceptKey != null && acceptKey.isValid()) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * One side of the connection. The read buffer is direct and sized to the socket's receive window, so that a
+     * single read can drain everything the kernel has buffered for us.
+     */
+    private static class ChannelSource {
+        private final SocketChannel channel;
+        private final DataReader reader;
+        private final ByteBuffer buffer;
+        private final String closeMessage;
+
+        ChannelSource(SocketChannel channel, DataReader reader, String closeMessage) throws IOException {
+            this.channel = channel;
+            this.reader = reader;
+            this.closeMessage = closeMessage;
+            this.buffer = ByteBuffer.allocateDirect(channel.socket().getReceiveBufferSize());
+        }
+    }
 }
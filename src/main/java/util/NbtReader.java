@@ -0,0 +1,266 @@
+package util;
+
+import se.llbit.nbt.ByteArrayTag;
+import se.llbit.nbt.ByteTag;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.DoubleTag;
+import se.llbit.nbt.FloatTag;
+import se.llbit.nbt.IntArrayTag;
+import se.llbit.nbt.IntTag;
+import se.llbit.nbt.ListTag;
+import se.llbit.nbt.LongArrayTag;
+import se.llbit.nbt.LongTag;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.ShortTag;
+import se.llbit.nbt.SpecificTag;
+import se.llbit.nbt.StringTag;
+import se.llbit.nbt.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads NBT directly from a byte buffer, instead of going through a stream one byte at a time. Tags are read into the
+ * regular NBT classes, but a list of paths (e.g. "Level/Sections") can be given to only read parts of the tree. Other
+ * tags are skipped using their length where possible, so large arrays and lists that are not needed are never
+ * materialised.
+ */
+public class NbtReader {
+    private final ByteBuffer buffer;
+
+    /**
+     * Read from the given buffer, starting at its current position. The position is advanced past each tag read.
+     */
+    public NbtReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read a full named tag.
+     */
+    public Tag readNamedTag() {
+        return readNamedTag(PathFilter.ALL);
+    }
+
+    /**
+     * Read a named tag, only including the tags at the given paths. Compound tags on the way to these paths are
+     * included but only contain the tags that lead to one of the paths.
+     * @param paths tag names separated by slashes, relative to the root tag
+     */
+    public Tag readNamedTag(String... paths) {
+        return readNamedTag(PathFilter.of(paths));
+    }
+
+    /**
+     * Skip past a named tag without reading it.
+     */
+    public void skipNamedTag() {
+        byte type = buffer.get();
+        if (type == Tag.TAG_END) {
+            return;
+        }
+        skipString();
+        skipPayload(type);
+    }
+
+    private Tag readNamedTag(PathFilter filter) {
+        byte type = buffer.get();
+        if (type == Tag.TAG_END) {
+            // the same instance the NBT library returns when reading an end tag from a stream
+            return Tag.END;
+        }
+
+        String name = readString();
+        return new NamedTag(name, readPayload(type, filter));
+    }
+
+    private SpecificTag readPayload(int type, PathFilter filter) {
+        switch (type) {
+            case Tag.TAG_BYTE: return new ByteTag(buffer.get());
+            case Tag.TAG_SHORT: return new ShortTag(buffer.getShort());
+            case Tag.TAG_INT: return new IntTag(buffer.getInt());
+            case Tag.TAG_LONG: return new LongTag(buffer.getLong());
+            case Tag.TAG_FLOAT: return new FloatTag(buffer.getFloat());
+            case Tag.TAG_DOUBLE: return new DoubleTag(buffer.getDouble());
+            case Tag.TAG_STRING: return new StringTag(readString());
+            case Tag.TAG_BYTE_ARRAY: {
+                byte[] res = new byte[readLength()];
+                buffer.get(res);
+                return new ByteArrayTag(res);
+            }
+            case Tag.TAG_INT_ARRAY: {
+                int[] res = new int[readLength()];
+                buffer.asIntBuffer().get(res);
+                skip(res.length * Integer.BYTES);
+                return new IntArrayTag(res);
+            }
+            case Tag.TAG_LONG_ARRAY: {
+                long[] res = new long[readLength()];
+                buffer.asLongBuffer().get(res);
+                skip(res.length * Long.BYTES);
+                return new LongArrayTag(res);
+            }
+            case Tag.TAG_LIST: {
+                byte elementType = buffer.get();
+                int length = readLength();
+
+                List<SpecificTag> elements = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    elements.add(readPayload(elementType, PathFilter.ALL));
+                }
+                return new ListTag(elementType, elements);
+            }
+            case Tag.TAG_COMPOUND: {
+                CompoundTag res = new CompoundTag();
+                byte elementType;
+                while ((elementType = buffer.get()) != Tag.TAG_END) {
+                    String name = readString();
+                    PathFilter child = filter.get(name);
+
+                    if (child == null) {
+                        skipPayload(elementType);
+                    } else {
+                        res.add(name, readPayload(elementType, child));
+                    }
+                }
+                return res;
+            }
+            default:
+                throw new IllegalArgumentException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    private void skipPayload(int type) {
+        int size = fixedSize(type);
+        if (size > 0) {
+            skip(size);
+            return;
+        }
+
+        switch (type) {
+            case Tag.TAG_STRING: skipString(); break;
+            case Tag.TAG_BYTE_ARRAY: skip(readLength()); break;
+            case Tag.TAG_INT_ARRAY: skip(readLength() * Integer.BYTES); break;
+            case Tag.TAG_LONG_ARRAY: skip(readLength() * Long.BYTES); break;
+            case Tag.TAG_LIST: {
+                byte elementType = buffer.get();
+                int length = readLength();
+
+                int elementSize = fixedSize(elementType);
+                if (elementSize > 0) {
+                    skip(length * elementSize);
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        skipPayload(elementType);
+                    }
+                }
+                break;
+            }
+            case Tag.TAG_COMPOUND: {
+                byte elementType;
+                while ((elementType = buffer.get()) != Tag.TAG_END) {
+                    skipString();
+                    skipPayload(elementType);
+                }
+                break;
+            }
+            case Tag.TAG_END: break;
+            default:
+                throw new IllegalArgumentException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    /**
+     * Size of the given tag type if it's always the same, or 0 otherwise.
+     */
+    private static int fixedSize(int type) {
+        switch (type) {
+            case Tag.TAG_BYTE: return Byte.BYTES;
+            case Tag.TAG_SHORT: return Short.BYTES;
+            case Tag.TAG_INT: case Tag.TAG_FLOAT: return Integer.BYTES;
+            case Tag.TAG_LONG: case Tag.TAG_DOUBLE: return Long.BYTES;
+            default: return 0;
+        }
+    }
+
+    private int readLength() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid NBT length: " + length);
+        }
+        return length;
+    }
+
+    private void skip(int amount) {
+        buffer.position(buffer.position() + amount);
+    }
+
+    private void skipString() {
+        skip(Short.toUnsignedInt(buffer.getShort()));
+    }
+
+    /**
+     * Strings are stored in modified UTF-8. For plain ASCII strings, which is nearly all of them, this is the same as
+     * reading each byte as a character, so we only need the slower decoder for other strings.
+     */
+    private String readString() {
+        int start = buffer.position();
+        int length = Short.toUnsignedInt(buffer.getShort());
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        for (byte b : bytes) {
+            if (b < 0) {
+                return decodeModifiedUtf(start, length);
+            }
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private String decodeModifiedUtf(int start, int length) {
+        byte[] bytes = new byte[Short.BYTES + length];
+        buffer.get(start, bytes);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Invalid NBT string", ex);
+        }
+    }
+
+    /**
+     * Tree of tag names to include when reading a compound tag. A filter without children includes everything.
+     */
+    private static class PathFilter {
+        private static final PathFilter ALL = new PathFilter();
+
+        private final Map<String, PathFilter> children = new HashMap<>();
+
+        static PathFilter of(String... paths) {
+            PathFilter root = new PathFilter();
+            for (String path : paths) {
+                PathFilter current = root;
+                for (String name : path.split("/")) {
+                    current = current.children.computeIfAbsent(name, k -> new PathFilter());
+                }
+            }
+            return root;
+        }
+
+        /**
+         * Get the filter for the tag with the given name, or null if the tag should not be included.
+         */
+        PathFilter get(String name) {
+            if (children.isEmpty()) {
+                return ALL;
+            }
+            return children.get(name);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel for expiring items after a fixed timeout. Items are placed in the slot that the wheel will reach
+ * once the timeout has passed, so scheduling and expiring are constant time regardless of how many items are waiting.
+ * The wheel does not keep time itself, advance() should be called once per tick. Items expire between the timeout and
+ * one tick after it.
+ */
+public class TimerWheel<T> {
+    private final List<List<T>> slots;
+    private final Consumer<T> onExpire;
+    private int cursor;
+
+    /**
+     * @param ticks    number of ticks after which items expire
+     * @param onExpire called for each item once it expires, on the thread calling advance()
+     */
+    public TimerWheel(int ticks, Consumer<T> onExpire) {
+        if (ticks < 1) {
+            throw new IllegalArgumentException("Timeout must be at least one tick");
+        }
+
+        this.onExpire = onExpire;
+        // one extra slot for the tick that is in progress when an item is scheduled, and one for the current position
+        this.slots = new ArrayList<>(ticks + 2);
+        for (int i = 0; i < ticks + 2; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedule the given item to expire after the timeout.
+     */
+    public synchronized void schedule(T item) {
+        slots.get(Math.floorMod(cursor - 1, slots.size())).add(item);
+    }
+
+    /**
+     * Move the wheel forward by one tick, expiring all items in the slot it arrives at.
+     */
+    public void advance() {
+        List<T> expired;
+        synchronized (this) {
+            cursor = (cursor + 1) % slots.size();
+            expired = slots.set(cursor, new ArrayList<>());
+        }
+
+        for (T item : expired) {
+            onExpire.accept(item);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package game.data.chunk;
+
+import game.data.chunk.version.encoder.BlockLocationEncoder;
+import game.data.chunk.version.encoder.BlockLocationEncoder_1_16;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the bulk encoding methods to encoding blocks one at a time, for every width and both layouts. When run with
+ * the vector profile (mvn -Pvector test), the bulk methods use the vectorised kernels for the widths they support.
+ */
+class BlockLocationEncoderTest {
+    private static final int BLOCKS = BlockLocationEncoder.BLOCKS_PER_SECTION;
+
+    private final Random random = new Random(0);
+
+    @Test
+    void packedRoundTrip() {
+        for (int bits = 4; bits <= 16; bits++) {
+            short[] indices = randomIndices(bits);
+
+            long[] expected = new long[BlockLocationEncoder.requiredLongs(bits)];
+            for (int i = 0; i < BLOCKS; i++) {
+                BlockLocationEncoder.encode(expected, i, bits, Short.toUnsignedInt(indices[i]));
+            }
+
+            long[] blocks = new long[expected.length];
+            BlockLocationEncoder.encodeAll(indices, bits, blocks);
+            assertThat(blocks).as("packed %d bits", bits).isEqualTo(expected);
+
+            short[] decoded = new short[BLOCKS];
+            BlockLocationEncoder.decodeAll(blocks, bits, decoded);
+            assertThat(decoded).as("packed %d bits", bits).isEqualTo(indices);
+        }
+    }
+
+    @Test
+    void paddedRoundTrip() {
+        for (int bits = 4; bits <= 16; bits++) {
+            short[] indices = randomIndices(bits);
+
+            long[] expected = new long[BlockLocationEncoder_1_16.requiredLongs(bits)];
+            for (int i = 0; i < BLOCKS; i++) {
+                BlockLocationEncoder_1_16.encode(expected, i, bits, Short.toUnsignedInt(indices[i]));
+            }
+
+            long[] blocks = new long[expected.length];
+            BlockLocationEncoder_1_16.encodeAll(indices, bits, blocks);
+            assertThat(blocks).as("padded %d bits", bits).isEqualTo(expected);
+
+            short[] decoded = new short[BLOCKS];
+            BlockLocationEncoder_1_16.decodeAll(blocks, bits, decoded);
+            assertThat(decoded).as("padded %d bits", bits).isEqualTo(indices);
+        }
+    }
+
+    /**
+     * Bulk encoding overwrites the whole array, so old data must not be kept.
+     */
+    @Test
+    void encodeAllOverwrites() {
+        for (int bits = 4; bits <= 16; bits++) {
+            short[] indices = randomIndices(bits);
+
+            long[] packed = new long[BlockLocationEncoder.requiredLongs(bits)];
+            long[] padded = new long[BlockLocationEncoder_1_16.requiredLongs(bits)];
+            BlockLocationEncoder.encodeAll(indices, bits, packed);
+            BlockLocationEncoder_1_16.encodeAll(indices, bits, padded);
+
+            long[] dirtyPacked = new long[packed.length];
+            long[] dirtyPadded = new long[padded.length];
+            Arrays.fill(dirtyPacked, -1L);
+            Arrays.fill(dirtyPadded, -1L);
+            BlockLocationEncoder.encodeAll(indices, bits, dirtyPacked);
+            BlockLocationEncoder_1_16.encodeAll(indices, bits, dirtyPadded);
+
+            assertThat(dirtyPacked).as("packed %d bits", bits).isEqualTo(packed);
+            assertThat(dirtyPadded).as("padded %d bits", bits).isEqualTo(padded);
+        }
+    }
+
+    private short[] randomIndices(int bits) {
+        short[] indices = new short[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            indices[i] = (short) random.nextInt(1 << bits);
+        }
+        return indices;
+    }
+}
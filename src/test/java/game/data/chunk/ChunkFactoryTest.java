@@ -0,0 +1,125 @@
+package game.data.chunk;
+
+import game.data.WorldManager;
+import game.data.coordinates.Coordinate3D;
+import game.data.coordinates.CoordinateDim2D;
+import game.data.dimension.Dimension;
+import org.junit.jupiter.api.Test;
+import packets.DataTypeProvider;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ChunkFactoryTest {
+    CoordinateDim2D pos = new CoordinateDim2D(0, 0, Dimension.OVERWORLD);
+
+    /**
+     * Block changes that arrive after new data for a chunk must not be added to a batch that was submitted before that
+     * data, as the batch would be applied first and the changes would be overwritten by the older data.
+     */
+    @Test
+    void blockChangesAfterChunkDataAreAppliedAfterParsing() throws InterruptedException {
+        List<Object> events = Collections.synchronizedList(new ArrayList<>());
+
+        Chunk chunk = mock(Chunk.class);
+        doAnswer(invocation -> events.add("parse")).when(chunk).parse(any(DataTypeProvider.class));
+        doAnswer(invocation -> {
+            BlockChanges changes = invocation.getArgument(0);
+            return events.add(new ArrayList<>(changes.getPositions()));
+        }).when(chunk).updateBlocks(any());
+
+        WorldManager mock = mock(WorldManager.class);
+        when(mock.getDimension()).thenReturn(Dimension.OVERWORLD);
+        when(mock.getPlayerPosition()).thenReturn(new Coordinate3D(0, 64, 0));
+        when(mock.getChunk(pos)).thenReturn(chunk);
+        WorldManager.setInstance(mock);
+
+        ChunkFactory factory = new ChunkFactory();
+
+        // keep the executor busy, so that the tasks below are all waiting when the chunk data arrives
+        CountDownLatch blocked = new CountDownLatch(1);
+        factory.runOnFactoryThread(pos, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Coordinate3D before = new Coordinate3D(1, 64, 1);
+        Coordinate3D after = new Coordinate3D(2, 64, 2);
+
+        factory.addBlockChange(pos, batch -> batch.add(before, 1));
+        factory.addChunk(chunkData(pos));
+        factory.addBlockChange(pos, batch -> batch.add(after, 2));
+
+        CountDownLatch done = new CountDownLatch(1);
+        factory.runOnFactoryThread(pos, done::countDown);
+
+        blocked.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(events).containsExactly(List.of(before), "parse", List.of(after));
+    }
+
+    /**
+     * Chunks are not parsed in the order they arrive, but a chunk must still not be parsed before tasks for it that
+     * were given before its data. Otherwise the parse task of an earlier chunk on the same executor could pick it first.
+     */
+    @Test
+    void tasksBeforeChunkDataRunBeforeParsing() throws InterruptedException {
+        List<Object> events = Collections.synchronizedList(new ArrayList<>());
+
+        // both on the same executor, whatever the number of executors is. The player is closest to the first one.
+        CoordinateDim2D near = new CoordinateDim2D(0, 0, Dimension.OVERWORLD);
+        CoordinateDim2D far = new CoordinateDim2D(1, -31, Dimension.OVERWORLD);
+
+        Chunk nearChunk = mock(Chunk.class);
+        doAnswer(invocation -> events.add("parse near")).when(nearChunk).parse(any(DataTypeProvider.class));
+        Chunk farChunk = mock(Chunk.class);
+        doAnswer(invocation -> events.add("parse far")).when(farChunk).parse(any(DataTypeProvider.class));
+
+        WorldManager mock = mock(WorldManager.class);
+        when(mock.getDimension()).thenReturn(Dimension.OVERWORLD);
+        when(mock.getPlayerPosition()).thenReturn(new Coordinate3D(0, 64, 0));
+        when(mock.getChunk(near)).thenReturn(nearChunk);
+        when(mock.getChunk(far)).thenReturn(farChunk);
+        WorldManager.setInstance(mock);
+
+        ChunkFactory factory = new ChunkFactory();
+
+        // keep the executor busy, so that everything below is waiting when it starts
+        CountDownLatch blocked = new CountDownLatch(1);
+        factory.runOnFactoryThread(far, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        factory.addChunk(chunkData(far));
+        factory.runOnFactoryThread(near, () -> events.add("task near"));
+        factory.addChunk(chunkData(near));
+
+        CountDownLatch done = new CountDownLatch(1);
+        factory.runOnFactoryThread(near, done::countDown);
+
+        blocked.countDown();
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(events).containsExactly("parse far", "task near", "parse near");
+    }
+
+    private static DataTypeProvider chunkData(CoordinateDim2D pos) {
+        return new DataTypeProvider(ByteBuffer.allocate(8).putInt(pos.getX()).putInt(pos.getZ()).array());
+    }
+}
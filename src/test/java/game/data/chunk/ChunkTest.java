@@ -157,4 +157,4 @@ class ChunkTest extends PacketBuilderAndParserTest {
     void chunk_1_17() throws IOException, ClassNotFoundException {
         testForWithLight(Version.V1_17.protocolVersion, "chunkdata_1_17");
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
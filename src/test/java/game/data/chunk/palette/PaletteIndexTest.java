@@ -0,0 +1,74 @@
+package game.data.chunk.palette;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PaletteIndexTest {
+
+    @Test
+    void emptyIndexMisses() {
+        PaletteIndex index = new PaletteIndex(0);
+
+        assertThat(index.get(0)).isEqualTo(-1);
+        assertThat(index.get(12345)).isEqualTo(-1);
+    }
+
+    @Test
+    void keepsEntriesWhenGrowing() {
+        // starts at 16 slots, so this doubles the table several times
+        PaletteIndex index = new PaletteIndex(1);
+        for (int i = 0; i < 1000; i++) {
+            index.put(i * 7, i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.get(i * 7)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void missesAfterGrowing() {
+        PaletteIndex index = new PaletteIndex(1);
+        for (int i = 0; i < 1000; i++) {
+            index.put(i * 7, i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.get(i * 7 + 1)).isEqualTo(-1);
+        }
+        assertThat(index.get(7000)).isEqualTo(-1);
+        assertThat(index.get(Integer.MAX_VALUE)).isEqualTo(-1);
+    }
+
+    @Test
+    void firstDuplicateWins() {
+        PaletteIndex index = new PaletteIndex(4);
+        index.put(10, 0);
+        index.put(20, 1);
+        index.put(10, 2);
+
+        assertThat(index.get(10)).isEqualTo(0);
+        assertThat(index.get(20)).isEqualTo(1);
+    }
+
+    @Test
+    void firstDuplicateWinsAcrossGrowth() {
+        PaletteIndex index = new PaletteIndex(1);
+        for (int i = 0; i < 100; i++) {
+            index.put(i, i);
+        }
+
+        // duplicates added after the table has grown should not replace the original indices
+        for (int i = 0; i < 100; i++) {
+            index.put(i, 1000 + i);
+        }
+        for (int i = 100; i < 500; i++) {
+            index.put(i, i);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            assertThat(index.get(i)).isEqualTo(i);
+        }
+    }
+}
@@ -6,11 +6,11 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import packets.DataTypeProvider;
 import packets.UUID;
-import packets.lib.ByteQueue;
 import packets.version.DataTypeProvider_1_13;
 import packets.version.DataTypeProvider_1_14;
 import se.llbit.nbt.*;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
@@ -36,9 +36,9 @@ public class PacketBuilderAndParserTest {
      * Get a DataTypeProvider built from the exiting packet builder.
      */
     protected DataTypeProvider getParser() {
-        ByteQueue built = builder.build();
-        byte[] arr = new byte[built.size()];
-        built.copyTo(arr);
+        ByteBuffer built = builder.build();
+        byte[] arr = new byte[built.remaining()];
+        built.get(arr);
 
         parser = new DataTypeProvider_1_14(arr);
         int length = parser.readVarInt();
@@ -236,4 +236,4 @@ public class PacketBuilderAndParserTest {
 
         assertThat(after).isEqualTo(new Coordinate3D(x, y, z));
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
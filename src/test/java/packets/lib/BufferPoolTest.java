@@ -0,0 +1,78 @@
+package packets.lib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BufferPoolTest {
+
+    @BeforeEach
+    void beforeEach() {
+        BufferPool.clear();
+        BufferPool.enableLeakDetection();
+    }
+
+    @AfterEach
+    void afterEach() {
+        assertThat(BufferPool.getLeaks()).isEmpty();
+        BufferPool.disableLeakDetection();
+    }
+
+    @Test
+    void sizeClasses() {
+        PooledBuffer small = BufferPool.acquire(10);
+        PooledBuffer exact = BufferPool.acquire(4096);
+        PooledBuffer larger = BufferPool.acquire(4097);
+
+        assertThat(small.array()).hasSize(256);
+        assertThat(exact.array()).hasSize(4096);
+        assertThat(larger.array()).hasSize(8192);
+
+        small.release();
+        exact.release();
+        larger.release();
+    }
+
+    @Test
+    void reusedAfterRelease() {
+        PooledBuffer first = BufferPool.acquire(1000);
+        byte[] array = first.array();
+        first.release();
+
+        PooledBuffer second = BufferPool.acquire(1000);
+        assertThat(second.array()).isSameAs(array);
+        second.release();
+    }
+
+    @Test
+    void notReusedWhileRetained() {
+        PooledBuffer first = BufferPool.acquire(1000);
+        first.retain();
+        first.release();
+
+        PooledBuffer second = BufferPool.acquire(1000);
+        assertThat(second.array()).isNotSameAs(first.array());
+
+        first.release();
+        second.release();
+    }
+
+    @Test
+    void leakDetected() {
+        PooledBuffer buffer = BufferPool.acquire(100);
+        assertThat(BufferPool.getLeaks()).hasSize(1);
+
+        buffer.release();
+    }
+
+    @Test
+    void releasedTwice() {
+        PooledBuffer buffer = BufferPool.acquire(100);
+        buffer.release();
+
+        assertThatThrownBy(buffer::release).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,162 @@
+package util;
+
+import game.data.chunk.ChunkBinary;
+import org.junit.jupiter.api.Test;
+import proxy.CompressionManager;
+import se.llbit.nbt.CompoundTag;
+import se.llbit.nbt.IntTag;
+import se.llbit.nbt.ListTag;
+import se.llbit.nbt.NamedTag;
+import se.llbit.nbt.SpecificTag;
+import se.llbit.nbt.StringTag;
+import se.llbit.nbt.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the NbtReader with the stream based reader of the NBT library, using the bundled chunk data.
+ */
+class NbtReaderTest {
+    private static final String[] CHUNKS = {
+            "chunkdata_1_12", "chunkdata_1_13", "chunkdata_1_14", "chunkdata_1_15", "chunkdata_1_16", "chunkdata_1_17"
+    };
+
+    /**
+     * Get the uncompressed NBT of one of the bundled chunks.
+     */
+    private static byte[] chunkNbt(String resource) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(NbtReaderTest.class.getClassLoader().getResourceAsStream(resource));
+        byte[] data = ((ChunkBinary) in.readObject()).getChunkData();
+
+        int length = (data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | (data[3] & 0xFF);
+        return CompressionManager.zlibDecompress(data, 5, length - 1);
+    }
+
+    private static Tag readWithStream(byte[] data) throws IOException {
+        return NamedTag.read(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] write(Tag tag) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((NamedTag) tag).write(new DataOutputStream(output));
+        return output.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        return ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+    }
+
+    private static List<String> names(Tag compound) {
+        List<String> names = new ArrayList<>();
+        for (NamedTag tag : compound.asCompound()) {
+            names.add(tag.name);
+        }
+        return names;
+    }
+
+    @Test
+    void readsSameTreeAsStream() throws IOException, ClassNotFoundException {
+        for (String chunk : CHUNKS) {
+            byte[] nbt = chunkNbt(chunk);
+            ByteBuffer buffer = ByteBuffer.wrap(nbt);
+
+            Tag read = new NbtReader(buffer).readNamedTag();
+
+            assertThat(write(read)).as(chunk).isEqualTo(write(readWithStream(nbt)));
+            assertThat(buffer.position()).as(chunk).isEqualTo(nbt.length);
+        }
+    }
+
+    @Test
+    void pathsOnlyIncludeRequestedTags() throws IOException, ClassNotFoundException {
+        for (String chunk : CHUNKS) {
+            byte[] nbt = chunkNbt(chunk);
+            Tag full = readWithStream(nbt).unpack();
+            ByteBuffer buffer = ByteBuffer.wrap(nbt);
+
+            Tag filtered = new NbtReader(buffer).readNamedTag("Level/Sections").unpack();
+
+            assertThat(names(filtered)).as(chunk).containsExactly("Level");
+            assertThat(names(filtered.get("Level"))).as(chunk).containsExactly("Sections");
+            assertThat(filtered.get("Level").get("Sections").toString())
+                    .as(chunk).isEqualTo(full.get("Level").get("Sections").toString());
+
+            // skipped tags are still consumed
+            assertThat(buffer.position()).as(chunk).isEqualTo(nbt.length);
+        }
+    }
+
+    @Test
+    void skipNamedTagStopsAfterTag() throws IOException, ClassNotFoundException {
+        byte[] chunk = chunkNbt("chunkdata_1_16");
+        byte[] next = write(new NamedTag("next", new IntTag(42)));
+        ByteBuffer buffer = ByteBuffer.wrap(concat(chunk, next));
+
+        NbtReader reader = new NbtReader(buffer);
+        reader.skipNamedTag();
+
+        assertThat(buffer.position()).isEqualTo(chunk.length);
+        assertThat(write(reader.readNamedTag())).isEqualTo(next);
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void skipsNestedListsAndCompounds() throws IOException {
+        CompoundTag inner = new CompoundTag();
+        inner.add("name", new StringTag("inner"));
+        inner.add("values", new ListTag(Tag.TAG_INT, List.<SpecificTag>of(new IntTag(1), new IntTag(2))));
+
+        List<SpecificTag> lists = new ArrayList<>();
+        lists.add(new ListTag(Tag.TAG_COMPOUND, List.<SpecificTag>of(inner, new CompoundTag())));
+        lists.add(new ListTag(Tag.TAG_STRING, List.<SpecificTag>of(new StringTag("a"), new StringTag("b"))));
+        lists.add(new ListTag(Tag.TAG_END, List.<SpecificTag>of()));
+
+        CompoundTag root = new CompoundTag();
+        root.add("nested", new ListTag(Tag.TAG_LIST, lists));
+        root.add("compound", inner);
+        root.add("target", new IntTag(42));
+        byte[] nbt = write(new NamedTag("root", root));
+        ByteBuffer buffer = ByteBuffer.wrap(nbt);
+
+        Tag filtered = new NbtReader(buffer).readNamedTag("target").unpack();
+
+        assertThat(names(filtered)).containsExactly("target");
+        assertThat(filtered.get("target").intValue()).isEqualTo(42);
+        assertThat(buffer.position()).isEqualTo(nbt.length);
+    }
+
+    @Test
+    void readsModifiedUtf8Strings() throws IOException {
+        // non-ASCII characters, a null character (two bytes in modified UTF-8) and a supplementary character
+        String value = "h\u00e9llo \u0000 \u2713 \ud83d\ude00";
+
+        CompoundTag root = new CompoundTag();
+        root.add("ascii", new StringTag("plain"));
+        root.add("\u00fcnicode", new StringTag(value));
+        byte[] nbt = write(new NamedTag("root", root));
+
+        Tag read = new NbtReader(ByteBuffer.wrap(nbt)).readNamedTag().unpack();
+
+        assertThat(read.get("ascii").stringValue()).isEqualTo("plain");
+        assertThat(read.get("\u00fcnicode").stringValue()).isEqualTo(value);
+        assertThat(write(new NamedTag("root", read.asCompound()))).isEqualTo(nbt);
+    }
+
+    @Test
+    void readsEndTag() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { Tag.TAG_END });
+
+        assertThat(new NbtReader(buffer).readNamedTag()).isSameAs(Tag.END);
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+}